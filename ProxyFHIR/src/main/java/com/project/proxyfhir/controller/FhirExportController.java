@@ -1,38 +1,91 @@
 package com.project.proxyfhir.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.proxyfhir.export.BulkExportService;
+import com.project.proxyfhir.importer.NdjsonFiles;
+import com.project.proxyfhir.search.DateParam;
+import com.project.proxyfhir.service.BulkFileCatalog;
+import com.project.proxyfhir.service.BulkFileCatalog.Source;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.DirectoryStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
-
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves the Synthea and hospital NDJSON files. Files may be stored as .ndjson or .ndjson.gz; both are
+ * listed under their .ndjson name and sent gzip-encoded (Content-Encoding: gzip) to clients that
+ * accept it, copying pre-compressed files as they are and decompressing them for other clients.
+ * Every download carries an ETag; single files sent as stored also support byte ranges, so a broken
+ * transfer can resume where it stopped. Also hosts the asynchronous $export of the database
+ * ({@link BulkExportService}), whose files are served the same way.
+ */
 @Controller
 @RequestMapping("/bulk")
 public class FhirExportController {
 
-    // Use a container-friendly default: the synthea sample folder is mounted at /synthea
-    @Value("${synthea.files.dir:/synthea-sample/${NUM_PATIENTS:100}-patients}")
-    private String filesDir;
+    private static final String NDJSON_CONTENT_TYPE = "application/fhir+ndjson; charset=utf-8";
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    // Tomcat (NIO/NIO2 connectors) writes a file named by these request attributes with sendfile
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final Set<String> NDJSON_OUTPUT_FORMATS =
+            Set.of("application/fhir+ndjson", "application/ndjson", "ndjson");
+
+    // synthea.files.dir and fhir.hospital.dir, indexed in memory
+    @Autowired
+    private BulkFileCatalog catalog;
 
-    // Hospital FHIR data directory
-    @Value("${fhir.hospital.dir:/synthea-sample/FHIR-patients}")
-    private String hospitalFhirDir;
+    @Autowired
+    private BulkExportService exportService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // serve single stored files with sendfile instead of copying them through the JVM
+    @Value("${fhir.bulk.sendfile:true}")
+    private boolean sendfileEnabled;
 
     /**
      * Endpoint to get hospital FHIR data manifest
@@ -40,36 +93,30 @@ public class FhirExportController {
      */
     @GetMapping("/hospital/manifest")
     @ResponseBody
-    public ResponseEntity<Map<String, Object>> hospitalManifest() throws IOException {
-        Path dir = Paths.get(hospitalFhirDir);
-        if (!Files.exists(dir) || !Files.isDirectory(dir)) {
+    public ResponseEntity<Map<String, Object>> hospitalManifest(
+            @RequestParam(name = "_since", required = false) String since,
+            @RequestParam(name = "_type", required = false) String type) {
+        Instant transactionTime = Instant.now();
+        if (!catalog.exists(Source.HOSPITAL)) {
             Map<String, Object> m = new HashMap<>();
-            m.put("error", "Hospital FHIR directory not found: " + hospitalFhirDir);
+            m.put("error", "Hospital FHIR directory not found: " + catalog.directory(Source.HOSPITAL));
             return ResponseEntity.badRequest().body(m);
         }
 
-        List<String> files = new ArrayList<>();
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.ndjson")) {
-            for (Path p : ds) {
-                // Exclude log files
-                if (!p.getFileName().toString().equals("log.ndjson")) {
-                    files.add(p.getFileName().toString());
-                }
-            }
+        List<BulkFileCatalog.FileEntry> files;
+        try {
+            files = selectFiles(Source.HOSPITAL, since, type);
+        } catch (IllegalArgumentException e) {
+            return operationOutcome(HttpStatus.BAD_REQUEST, "invalid", e.getMessage());
         }
-
-        List<Map<String, String>> items = files.stream().map(f -> {
-            Map<String, String> it = new HashMap<>();
-            it.put("fileName", f);
-            it.put("url", "/bulk/hospital/files/" + f);
-            it.put("resourceType", f.split("\\.")[0]); // Extract resource type from filename
-            return it;
-        }).collect(Collectors.toList());
+        List<Map<String, Object>> items = files.stream()
+                .map(f -> manifestItem(f, "/bulk/hospital/files/"))
+                .collect(Collectors.toList());
 
         Map<String, Object> out = new HashMap<>();
         out.put("exportId", "hospital-fhir-export");
         out.put("exportType", "hospital");
-        out.put("transactionTime", java.time.Instant.now().toString());
+        out.put("transactionTime", transactionTime.toString());
         out.put("files", items);
         out.put("totalFiles", items.size());
         return ResponseEntity.ok(out);
@@ -79,187 +126,577 @@ public class FhirExportController {
      * Get a specific file from hospital FHIR data
      */
     @GetMapping("/hospital/files/{filename:.+}")
-    public ResponseEntity<StreamingResponseBody> getHospitalFile(@PathVariable String filename) throws IOException {
-        Path dir = Paths.get(hospitalFhirDir);
-        Path file = dir.resolve(filename).normalize();
-        if (!file.startsWith(dir) || !Files.exists(file)) {
+    public ResponseEntity<StreamingResponseBody> getHospitalFile(@PathVariable String filename,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("X-FHIR-Source", "hospital-system");
+        return fileResponse(request, response, catalog.directory(Source.HOSPITAL), filename, acceptsGzip(acceptEncoding),
+                headers);
+    }
+
+    /**
+     * Get all resources of a specific type from hospital FHIR data
+     */
+    @GetMapping("/hospital/resource/{resourceType}")
+    public ResponseEntity<StreamingResponseBody> getHospitalResourceType(@PathVariable String resourceType,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        List<Path> matches = preferred(catalog.files(Source.HOSPITAL, resourceType), gzip);
+        if (matches.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
 
-        StreamingResponseBody body = outputStream -> {
-            try (InputStream in = Files.newInputStream(file)) {
-                byte[] buffer = new byte[8192];
-                int len;
-                while ((len = in.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, len);
-                }
-            }
-        };
-
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_TYPE, "application/fhir+ndjson; charset=utf-8")
-                .header("X-FHIR-Source", "hospital-system")
-                .body(body);
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("X-FHIR-Source", "hospital-system");
+        headers.add("X-Resource-Type", resourceType);
+        return ndjsonResponse(request, response, matches, gzip, headers);
     }
 
     /**
-     * Get all resources of a specific type from hospital FHIR data
+     * Get all hospital FHIR data in one stream, or with _since / _type only the files changed since
+     * then / of those types (possibly none)
      */
-    @GetMapping("/hospital/resource/{resourceType}")
-    public ResponseEntity<StreamingResponseBody> getHospitalResourceType(@PathVariable String resourceType) throws IOException {
-        Path dir = Paths.get(hospitalFhirDir);
-        if (!Files.exists(dir) || !Files.isDirectory(dir)) {
+    @GetMapping("/hospital/all")
+    public ResponseEntity<StreamingResponseBody> getAllHospitalData(
+            @RequestParam(name = "_since", required = false) String since,
+            @RequestParam(name = "_type", required = false) String type,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (catalog.files(Source.HOSPITAL).isEmpty()) {
             return ResponseEntity.notFound().build();
         }
+        boolean gzip = acceptsGzip(acceptEncoding);
+        List<Path> allFiles;
+        try {
+            allFiles = preferred(selectFiles(Source.HOSPITAL, since, type), gzip);
+        } catch (IllegalArgumentException e) {
+            return streamedOutcome(HttpStatus.BAD_REQUEST, "invalid", e.getMessage());
+        }
 
-        List<Path> matches = new ArrayList<>();
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, resourceType + "*.ndjson")) {
-            for (Path p : ds) matches.add(p);
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("X-FHIR-Source", "hospital-system");
+        headers.add("X-Export-Type", since != null ? "incremental" : "complete");
+        return ndjsonResponse(request, response, allFiles, gzip, headers);
+    }
+
+    @GetMapping("/manifest")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> manifest(
+            @RequestParam(name = "_since", required = false) String since,
+            @RequestParam(name = "_type", required = false) String type) {
+        Instant transactionTime = Instant.now();
+        if (!catalog.exists(Source.SYNTHEA)) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("error", "files directory not found: " + catalog.directory(Source.SYNTHEA));
+            return ResponseEntity.badRequest().body(m);
         }
 
-        if (matches.isEmpty()) {
-            return ResponseEntity.notFound().build();
+        List<BulkFileCatalog.FileEntry> files;
+        try {
+            files = selectFiles(Source.SYNTHEA, since, type);
+        } catch (IllegalArgumentException e) {
+            return operationOutcome(HttpStatus.BAD_REQUEST, "invalid", e.getMessage());
         }
+        List<Map<String, Object>> items = files.stream()
+                .map(f -> manifestItem(f, "/bulk/files/"))
+                .collect(Collectors.toList());
 
-        StreamingResponseBody body = outputStream -> {
-            byte[] buffer = new byte[8192];
-            for (Path p : matches) {
-                try (InputStream in = Files.newInputStream(p)) {
-                    int len;
-                    while ((len = in.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, len);
-                    }
-                }
-            }
-        };
+        Map<String, Object> out = new HashMap<>();
+        out.put("exportId", "synthea-export");
+        out.put("transactionTime", transactionTime.toString());
+        out.put("files", items);
+        return ResponseEntity.ok(out);
+    }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_TYPE, "application/fhir+ndjson; charset=utf-8")
-                .header("X-FHIR-Source", "hospital-system")
-                .header("X-Resource-Type", resourceType)
-                .body(body);
+    @GetMapping("/files/{filename:.+}")
+    public ResponseEntity<StreamingResponseBody> getFile(@PathVariable String filename,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        return fileResponse(request, response, catalog.directory(Source.SYNTHEA), filename, acceptsGzip(acceptEncoding),
+                new HttpHeaders());
+    }
+
+    @GetMapping("/resource/{resourceType}")
+    public ResponseEntity<StreamingResponseBody> getResourceType(@PathVariable String resourceType,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        List<Path> matches = preferred(catalog.files(Source.SYNTHEA, resourceType), gzip);
+        if (matches.isEmpty()) return ResponseEntity.notFound().build();
+
+        return ndjsonResponse(request, response, matches, gzip, new HttpHeaders());
     }
 
     /**
-     * Get all hospital FHIR data in one stream
+     * FHIR bulk data kick-off: exports the resources stored in fhir_resource to NDJSON files in the
+     * background and answers 202 with the status URL in Content-Location (429 while the export queue
+     * is full). _since limits the export to resources updated at or after that instant, typically the
+     * transactionTime of the previous export, and _type to a comma-separated list of types.
      */
-    @GetMapping("/hospital/all")
-    public ResponseEntity<StreamingResponseBody> getAllHospitalData() throws IOException {
-        Path dir = Paths.get(hospitalFhirDir);
-        if (!Files.exists(dir) || !Files.isDirectory(dir)) {
-            return ResponseEntity.notFound().build();
+    @RequestMapping(value = "/$export", method = {RequestMethod.GET, RequestMethod.POST})
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> kickOffExport(
+            @RequestParam(name = "_outputFormat", required = false) String outputFormat,
+            @RequestParam(name = "_since", required = false) String since,
+            @RequestParam(name = "_type", required = false) String type,
+            HttpServletRequest request) {
+        if (outputFormat != null && !NDJSON_OUTPUT_FORMATS.contains(outputFormat)) {
+            return operationOutcome(HttpStatus.BAD_REQUEST, "not-supported",
+                    "Unsupported _outputFormat: " + outputFormat);
+        }
+        Instant sinceTime;
+        try {
+            sinceTime = parseSince(since);
+        } catch (IllegalArgumentException e) {
+            return operationOutcome(HttpStatus.BAD_REQUEST, "invalid", e.getMessage());
+        }
+        String requestUrl = request.getRequestURL()
+                + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        String jobId;
+        try {
+            jobId = exportService.start(requestUrl, sinceTime, parseTypes(type));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, "60")
+                    .body(outcome("throttled", "Too many bulk exports in progress"));
         }
+        return ResponseEntity.accepted()
+                .header(HttpHeaders.CONTENT_LOCATION, "/bulk/$export-status/" + jobId)
+                .body(Map.of("jobId", jobId, "status", BulkExportService.State.ACCEPTED));
+    }
 
-        List<Path> allFiles = new ArrayList<>();
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.ndjson")) {
-            for (Path p : ds) {
-                // Exclude log files
-                if (!p.getFileName().toString().equals("log.ndjson")) {
-                    allFiles.add(p);
-                }
+    /**
+     * Export status: 202 with X-Progress while running, then 200 with the manifest of the files, or 500
+     * with an OperationOutcome if the export failed.
+     */
+    @GetMapping("/$export-status/{jobId}")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> exportStatus(@PathVariable String jobId) {
+        Optional<BulkExportService.Status> found = exportService.status(jobId);
+        if (found.isEmpty()) {
+            return operationOutcome(HttpStatus.NOT_FOUND, "not-found", "Unknown export: " + jobId);
+        }
+        BulkExportService.Status status = found.get();
+        switch (status.state()) {
+            case ACCEPTED, RUNNING -> {
+                String progress = status.state() == BulkExportService.State.ACCEPTED ? "queued"
+                        : status.resourcesExported() + " of " + status.resourcesTotal() + " resources"
+                        + (status.currentType() != null ? ", exporting " + status.currentType() : "");
+                return ResponseEntity.accepted()
+                        .header("X-Progress", progress)
+                        .header(HttpHeaders.RETRY_AFTER, "5")
+                        .build();
+            }
+            case FAILED -> {
+                return operationOutcome(HttpStatus.INTERNAL_SERVER_ERROR, "exception",
+                        "Export failed: " + status.error());
+            }
+            default -> {
+                return ResponseEntity.ok(exportManifest(status));
             }
         }
+    }
 
-        if (allFiles.isEmpty()) {
-            return ResponseEntity.notFound().build();
+    /**
+     * Cancels a running export, or deletes the files of a finished one.
+     */
+    @DeleteMapping("/$export-status/{jobId}")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> deleteExport(@PathVariable String jobId) {
+        if (!exportService.cancel(jobId)) {
+            return operationOutcome(HttpStatus.NOT_FOUND, "not-found", "Unknown export: " + jobId);
         }
+        return ResponseEntity.accepted().build();
+    }
 
-        StreamingResponseBody body = outputStream -> {
-            byte[] buffer = new byte[8192];
-            for (Path p : allFiles) {
-                try (InputStream in = Files.newInputStream(p)) {
-                    int len;
-                    while ((len = in.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, len);
-                    }
-                }
-            }
-        };
+    @GetMapping("/$export/{jobId}/files/{filename:.+}")
+    public ResponseEntity<StreamingResponseBody> getExportFile(@PathVariable String jobId, @PathVariable String filename,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<Path> dir = exportService.directory(jobId);
+        if (dir.isEmpty()) return ResponseEntity.notFound().build();
+        return fileResponse(request, response, dir.get(), filename, acceptsGzip(acceptEncoding), new HttpHeaders());
+    }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_TYPE, "application/fhir+ndjson; charset=utf-8")
-                .header("X-FHIR-Source", "hospital-system")
-                .header("X-Export-Type", "complete")
-                .body(body);
+    /**
+     * Catalog files filtered by _since (modified at or after) and _type (comma-separated), when given.
+     *
+     * @throws IllegalArgumentException if _since is not a FHIR instant
+     */
+    private List<BulkFileCatalog.FileEntry> selectFiles(Source source, String since, String type) {
+        Instant sinceTime = parseSince(since);
+        Set<String> types = parseTypes(type);
+        List<BulkFileCatalog.FileEntry> files = new ArrayList<>();
+        for (BulkFileCatalog.FileEntry file : catalog.files(source)) {
+            if (sinceTime != null && file.lastModified().isBefore(sinceTime)) continue;
+            if (types != null && !types.contains(file.resourceType())) continue;
+            files.add(file);
+        }
+        return files;
     }
 
-    @GetMapping("/manifest")
-    @ResponseBody
-    public ResponseEntity<Map<String, Object>> manifest() throws IOException {
-        Path dir = Paths.get(filesDir);
-        if (!Files.exists(dir) || !Files.isDirectory(dir)) {
-            Map<String, Object> m = new HashMap<>();
-            m.put("error", "files directory not found: " + filesDir);
-            return ResponseEntity.badRequest().body(m);
+    /**
+     * @throws IllegalArgumentException if the value is not a FHIR instant
+     */
+    private static Instant parseSince(String since) {
+        if (since == null) return null;
+        // an unescaped '+' in a time zone offset arrives as a space
+        Instant instant = DateParam.start(since.trim().replace(' ', '+'));
+        if (instant == null) {
+            throw new IllegalArgumentException("Invalid _since: " + since);
         }
+        return instant;
+    }
 
-        List<String> files = new ArrayList<>();
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.ndjson")) {
-            for (Path p : ds) files.add(p.getFileName().toString());
+    private static Set<String> parseTypes(String type) {
+        if (type == null) return null;
+        Set<String> types = new HashSet<>();
+        for (String t : type.split(",")) {
+            if (!t.isBlank()) types.add(t.trim());
         }
+        return types;
+    }
 
-        List<Map<String, String>> items = files.stream().map(f -> {
-            Map<String, String> it = new HashMap<>();
-            it.put("fileName", f);
-            it.put("url", "/bulk/files/" + f);
-            return it;
-        }).collect(Collectors.toList());
+    /**
+     * Completed export in the manifest format of the file endpoints, plus the output/error lists of
+     * the FHIR bulk data status response.
+     */
+    private static Map<String, Object> exportManifest(BulkExportService.Status status) {
+        String urlPrefix = "/bulk/$export/" + status.jobId() + "/files/";
+        List<Map<String, Object>> items = new ArrayList<>();
+        List<Map<String, Object>> output = new ArrayList<>();
+        for (BulkExportService.OutputFile file : status.output()) {
+            Map<String, Object> it = new HashMap<>();
+            it.put("fileName", file.fileName());
+            it.put("url", urlPrefix + file.fileName());
+            it.put("resourceType", file.resourceType());
+            it.put("count", file.count());
+            it.put("size", file.size());
+            items.add(it);
+            output.add(Map.of("type", file.resourceType(), "url", urlPrefix + file.fileName(), "count", file.count()));
+        }
 
         Map<String, Object> out = new HashMap<>();
-        out.put("exportId", "synthea-export");
+        out.put("exportId", status.jobId());
+        out.put("exportType", "database");
+        out.put("transactionTime", status.transactionTime().toString());
+        out.put("request", status.request());
+        out.put("requiresAccessToken", false);
         out.put("files", items);
-        return ResponseEntity.ok(out);
+        out.put("totalFiles", items.size());
+        out.put("output", output);
+        out.put("error", List.of());
+        return out;
     }
 
-    @GetMapping("/files/{filename:.+}")
-    public ResponseEntity<StreamingResponseBody> getFile(@PathVariable String filename) throws IOException {
-        Path dir = Paths.get(filesDir);
+    private static ResponseEntity<Map<String, Object>> operationOutcome(HttpStatus status, String code,
+                                                                        String diagnostics) {
+        return ResponseEntity.status(status).body(outcome(code, diagnostics));
+    }
+
+    /**
+     * The same OperationOutcome for endpoints whose declared body is a StreamingResponseBody.
+     */
+    private ResponseEntity<StreamingResponseBody> streamedOutcome(HttpStatus status, String code, String diagnostics) {
+        Map<String, Object> body = outcome(code, diagnostics);
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> objectMapper.writeValue(out, body));
+    }
+
+    private static Map<String, Object> outcome(String code, String diagnostics) {
+        return Map.of(
+                "resourceType", "OperationOutcome",
+                "issue", List.of(Map.of(
+                        "severity", "error",
+                        "code", code,
+                        "diagnostics", diagnostics)));
+    }
+
+    /**
+     * Manifest entry of a file, with the figures a client needs to plan parallel downloads: resource
+     * count (NDJSON lines), size of the content and of its .gz variant, SHA-256 of the content and
+     * modification time. count and sha256 are null while the catalog is still reading the file.
+     */
+    private static Map<String, Object> manifestItem(BulkFileCatalog.FileEntry file, String urlPrefix) {
+        Map<String, Object> it = new HashMap<>();
+        it.put("fileName", file.fileName());
+        it.put("url", urlPrefix + file.fileName());
+        it.put("resourceType", file.resourceType());
+        it.put("count", file.lines());
+        it.put("size", file.size());
+        it.put("compressedSize", file.compressedSize());
+        it.put("sha256", file.sha256());
+        it.put("lastModified", file.lastModified().toString());
+        return it;
+    }
+
+    /**
+     * The stored variant of each file that can be sent without re-encoding, when there is a choice.
+     */
+    private static List<Path> preferred(List<BulkFileCatalog.FileEntry> files, boolean gzip) {
+        List<Path> paths = new ArrayList<>(files.size());
+        for (BulkFileCatalog.FileEntry file : files) {
+            paths.add(file.preferred(gzip));
+        }
+        return paths;
+    }
+
+    /**
+     * One file by name: Name.ndjson is served from Name.ndjson or Name.ndjson.gz (content-encoded
+     * as the client accepts), while an explicit Name.ndjson.gz is downloaded as stored.
+     */
+    private ResponseEntity<StreamingResponseBody> fileResponse(HttpServletRequest request, HttpServletResponse response,
+                                                               Path dir, String filename, boolean gzip,
+                                                               HttpHeaders headers) throws IOException {
         Path file = dir.resolve(filename).normalize();
-        if (!file.startsWith(dir) || !Files.exists(file)) {
+        if (!file.startsWith(dir)) {
+            return ResponseEntity.notFound().build();
+        }
+        if (NdjsonFiles.isGzip(file)) {
+            if (!Files.exists(file)) return ResponseEntity.notFound().build();
+            headers.set(HttpHeaders.CONTENT_TYPE, "application/gzip");
+            return storedFileResponse(request, response, file, headers);
+        }
+        Path compressed = file.resolveSibling(file.getFileName() + NdjsonFiles.GZIP_SUFFIX);
+        boolean plainExists = Files.exists(file);
+        boolean compressedExists = Files.exists(compressed);
+        if (!plainExists && !compressedExists) {
             return ResponseEntity.notFound().build();
         }
+        Path source = compressedExists && (gzip || !plainExists) ? compressed : file;
+        if (gzip != NdjsonFiles.isGzip(source)) {
+            return ndjsonResponse(request, response, List.of(source), gzip, headers);
+        }
+        headers.set(HttpHeaders.CONTENT_TYPE, NDJSON_CONTENT_TYPE);
+        headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return storedFileResponse(request, response, source, headers);
+    }
 
-        StreamingResponseBody body = outputStream -> {
-            try (InputStream in = Files.newInputStream(file)) {
-                byte[] buffer = new byte[8192];
-                int len;
-                while ((len = in.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, len);
-                }
+    /**
+     * Sends a file byte for byte, with a strong ETag (size and modification time), so that clients can
+     * skip it when unchanged (If-None-Match, If-Modified-Since: 304) and resume a broken download with a
+     * single Range (206), guarded by If-Range. Multiple ranges are answered with the whole file.
+     */
+    private ResponseEntity<StreamingResponseBody> storedFileResponse(HttpServletRequest request,
+                                                                     HttpServletResponse response, Path file,
+                                                                     HttpHeaders headers) throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+        // sets ETag and Last-Modified on the response, and the 304 status when the client's copy is current
+        if (new ServletWebRequest(request, response).checkNotModified(etag, modified)) {
+            return null;
+        }
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        HttpRange range = requestedRange(request, etag, modified);
+        if (range == null) {
+            if (sendfile(request, file, 0, size)) {
+                return ResponseEntity.ok().headers(headers).contentLength(size).build();
             }
-        };
+            return ResponseEntity.ok().headers(headers).body(outputStream -> Files.copy(file, outputStream));
+        }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_TYPE, "application/fhir+ndjson; charset=utf-8")
-                .body(body);
+        long start = range.getRangeStart(size);
+        long end = range.getRangeEnd(size);
+        if (size == 0 || start >= size || end < start) {
+            headers.remove(HttpHeaders.CONTENT_ENCODING);
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .headers(headers)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                    .build();
+        }
+        long length = end - start + 1;
+        ResponseEntity.BodyBuilder partial = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .headers(headers)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        if (sendfile(request, file, start, end + 1)) {
+            return partial.contentLength(length).build();
+        }
+        return partial.contentLength(length).body(outputStream -> copyRange(file, start, length, outputStream));
     }
 
-    @GetMapping("/resource/{resourceType}")
-    public ResponseEntity<StreamingResponseBody> getResourceType(@PathVariable String resourceType) throws IOException {
-        Path dir = Paths.get(filesDir);
-        if (!Files.exists(dir) || !Files.isDirectory(dir)) return ResponseEntity.notFound().build();
+    /**
+     * The single byte range to send, or null for the whole file: no or malformed Range header, several
+     * ranges, or an If-Range that no longer matches the file (then it changed and must be sent again).
+     */
+    private static HttpRange requestedRange(HttpServletRequest request, String etag, long modified) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !"GET".equals(request.getMethod())) return null;
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                // If-Range needs a strong comparison
+                if (!ifRange.equals(etag)) return null;
+            } else {
+                try {
+                    long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                    if (date / 1000 != modified / 1000) return null;
+                } catch (DateTimeParseException e) {
+                    return null;
+                }
+            }
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        List<Path> matches = new ArrayList<>();
-        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, resourceType + "*.ndjson")) {
-            for (Path p : ds) matches.add(p);
+    private static void copyRange(Path file, long start, long length, OutputStream out) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            in.skipNBytes(start);
+            byte[] buffer = new byte[GZIP_BUFFER_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n == -1) break;
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
         }
+    }
 
-        if (matches.isEmpty()) return ResponseEntity.notFound().build();
+    /**
+     * Streams the files one after another, gzip-encoded when the client accepts it. Concatenated gzip
+     * members form a valid gzip stream, so .gz files are copied without recompression and each
+     * uncompressed file becomes a member of its own. A single file stored in the encoding the client
+     * gets is not copied at all but handed to the container's sendfile.
+     *
+     * The bytes depend on the encoder, so the ETag (from the names, sizes and modification times of
+     * the files) is weak: it answers If-None-Match but does not allow ranges.
+     */
+    private ResponseEntity<StreamingResponseBody> ndjsonResponse(HttpServletRequest request,
+                                                                 HttpServletResponse response, List<Path> files,
+                                                                 boolean gzip, HttpHeaders headers) throws IOException {
+        CRC32 checksum = new CRC32();
+        long modified = 0;
+        for (Path p : files) {
+            long fileModified = Files.getLastModifiedTime(p).toMillis();
+            checksum.update((p.getFileName() + ":" + Files.size(p) + ":" + fileModified + "\n").getBytes(StandardCharsets.UTF_8));
+            modified = Math.max(modified, fileModified);
+        }
+        String etag = "W/\"" + Long.toHexString(checksum.getValue()) + "-" + files.size() + (gzip ? "-gzip" : "") + "\"";
+        if (new ServletWebRequest(request, response).checkNotModified(etag, modified)) {
+            return null;
+        }
+
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok()
+                .headers(headers)
+                .header(HttpHeaders.CONTENT_TYPE, NDJSON_CONTENT_TYPE)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .header(HttpHeaders.ACCEPT_RANGES, "none");
+        if (gzip) {
+            ok.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        if (files.size() == 1 && gzip == NdjsonFiles.isGzip(files.get(0))) {
+            long size = Files.size(files.get(0));
+            if (sendfile(request, files.get(0), 0, size)) {
+                return ok.contentLength(size).build();
+            }
+        }
 
         StreamingResponseBody body = outputStream -> {
-            byte[] buffer = new byte[8192];
-            for (Path p : matches) {
-                try (InputStream in = Files.newInputStream(p)) {
-                    int len;
-                    while ((len = in.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, len);
+            for (Path p : files) {
+                if (gzip == NdjsonFiles.isGzip(p)) {
+                    Files.copy(p, outputStream);
+                } else if (gzip) {
+                    try (GZIPOutputStream member = new GZIPOutputStream(new NonClosingOutputStream(outputStream),
+                            GZIP_BUFFER_SIZE)) {
+                        Files.copy(p, member);
+                    }
+                } else {
+                    try (InputStream in = NdjsonFiles.openContent(p)) {
+                        in.transferTo(outputStream);
                     }
                 }
             }
+            if (gzip && files.isEmpty()) {
+                // an empty gzip-encoded body must still be a (single, empty) gzip member
+                new GZIPOutputStream(new NonClosingOutputStream(outputStream)).close();
+            }
         };
+        return ok.body(body);
+    }
+
+    /**
+     * Asks the servlet container to write bytes [start, end) of the file after the handler returns,
+     * with sendfile (FileChannel.transferTo): the bytes go from the page cache to the socket without
+     * passing through the JVM heap or holding a request thread. Returns false when the connector does
+     * not support it (or for HEAD requests, which must not get a body); the caller then streams the
+     * file itself.
+     */
+    private boolean sendfile(HttpServletRequest request, Path file, long start, long end) {
+        if (!sendfileEnabled || !"GET".equals(request.getMethod())
+                || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, start);
+        request.setAttribute(SENDFILE_END, end);
+        return true;
+    }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_TYPE, "application/fhir+ndjson; charset=utf-8")
-                .body(body);
+    /**
+     * True when Accept-Encoding allows gzip with a non-zero q value. An explicit gzip entry takes
+     * precedence over *, so "gzip;q=0, *" refuses gzip.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        Double gzipQ = null;
+        Double wildcardQ = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            boolean gzip = name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip");
+            if (!gzip && !name.equals("*")) continue;
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.regionMatches(true, 0, "q=", 0, 2)) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (gzip) {
+                gzipQ = gzipQ == null ? q : Math.max(gzipQ, q);
+            } else {
+                wildcardQ = wildcardQ == null ? q : Math.max(wildcardQ, q);
+            }
+        }
+        if (gzipQ != null) return gzipQ > 0;
+        return wildcardQ != null && wildcardQ > 0;
+    }
+
+    /**
+     * Lets a gzip member be finished and released without closing the response stream.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
     }
 }
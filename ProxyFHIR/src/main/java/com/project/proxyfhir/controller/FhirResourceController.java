@@ -2,17 +2,28 @@ package com.project.proxyfhir.controller;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.project.proxyfhir.importer.BundleIngester;
 import com.project.proxyfhir.model.FhirResource;
 import com.project.proxyfhir.repository.FhirResourceRepository;
+import com.project.proxyfhir.search.SearchParameterExtractor;
+import com.project.proxyfhir.service.ResourceCache;
+import com.project.proxyfhir.service.ResourceCountService;
+import com.project.proxyfhir.storage.ResourceUpserter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.InputStream;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/ressources")
@@ -21,37 +32,84 @@ public class FhirResourceController {
     @Autowired
     private FhirResourceRepository repository;
 
+    @Autowired
+    private ResourceCountService resourceCounts;
+
+    @Autowired
+    private BundleIngester bundleIngester;
+
+    @Autowired
+    private ResourceUpserter upserter;
+
+    @Autowired
+    private ResourceCache resourceCache;
+
     private final ObjectMapper mapper = new ObjectMapper();
 
     /**
-     * POST /proxyFHIR - Ingest a FHIR Bundle or single resource (keeps existing behaviour)
+     * POST /proxyFHIR - Ingest a FHIR Bundle or single resource.
+     * transaction, batch and collection Bundles are stored as their entry resources and answered
+     * with a transaction-response / batch-response Bundle holding one outcome per entry; anything
+     * else is stored as one resource under its own resourceType and id.
      */
     @PostMapping
-    public ResponseEntity<Map<String, Object>> ingestBundle(@RequestBody String fhirJson) {
+    public ResponseEntity<Map<String, Object>> ingestBundle(InputStream body) {
         try {
-            // Parse and save the FHIR resource/bundle
-            FhirResource resource = new FhirResource();
-            resource.setResourceType("Bundle"); // You can parse resourceType from JSON if desired
-            resource.setResourceId("auto-" + System.currentTimeMillis());
-            resource.setData(fhirJson);
-            resource.setLastUpdated(LocalDateTime.now());
-
-            repository.save(resource);
-
-            return ResponseEntity.status(HttpStatus.CREATED).body(Map.of(
-                "status", "success",
-                "message", "FHIR resource ingested",
-                "resourceId", resource.getResourceId(),
-                "timestamp", resource.getLastUpdated()
-            ));
+            BundleIngester.Result result = bundleIngester.ingest(body);
+            if (result.bundleType() == null) {
+                BundleIngester.EntryOutcome outcome = result.entries().get(0);
+                return ResponseEntity.status(HttpStatus.CREATED).body(Map.of(
+                    "status", "success",
+                    "message", "FHIR resource ingested",
+                    "resourceType", outcome.resourceType(),
+                    "resourceId", outcome.resourceId(),
+                    "timestamp", result.timestamp()
+                ));
+            }
+            return ResponseEntity.ok(responseBundle(result));
+        } catch (BundleIngester.InvalidEntryException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(operationOutcome("invalid", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of(
                 "status", "error",
-                "message", e.getMessage()
+                "message", String.valueOf(e.getMessage())
             ));
         }
     }
 
+    private static Map<String, Object> responseBundle(BundleIngester.Result result) {
+        String lastModified = result.timestamp().atZone(ZoneId.systemDefault()).toOffsetDateTime().toString();
+        List<Map<String, Object>> entries = new ArrayList<>(result.entries().size());
+        for (BundleIngester.EntryOutcome outcome : result.entries()) {
+            HttpStatus status = HttpStatus.valueOf(outcome.status());
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("status", status.value() + " " + status.getReasonPhrase());
+            if (outcome.diagnostics() != null) {
+                response.put("outcome", operationOutcome("invalid", outcome.diagnostics()));
+            } else {
+                response.put("location", outcome.resourceType() + "/" + outcome.resourceId());
+                response.put("lastModified", lastModified);
+            }
+            entries.add(Map.of("response", response));
+        }
+        Map<String, Object> bundle = new LinkedHashMap<>();
+        bundle.put("resourceType", "Bundle");
+        bundle.put("type", "transaction".equals(result.bundleType()) ? "transaction-response" : "batch-response");
+        bundle.put("entry", entries);
+        return bundle;
+    }
+
+    private static Map<String, Object> operationOutcome(String code, String diagnostics) {
+        return Map.of(
+            "resourceType", "OperationOutcome",
+            "issue", List.of(Map.of(
+                "severity", "error",
+                "code", code,
+                "diagnostics", diagnostics
+            ))
+        );
+    }
+
     /**
      * GET /proxyFHIR - List all FHIR resources
      */
@@ -90,7 +148,7 @@ public class FhirResourceController {
      */
     @GetMapping("/type/{resourceType}/{resourceId}")
     public ResponseEntity<?> getResourceByTypeAndId(@PathVariable String resourceType, @PathVariable String resourceId) {
-        Optional<FhirResource> resource = repository.findByResourceTypeAndResourceId(resourceType, resourceId);
+        Optional<FhirResource> resource = resourceCache.find(resourceType, resourceId);
         if (resource.isPresent()) {
             // try to return parsed JSON content where possible
             try {
@@ -109,32 +167,29 @@ public class FhirResourceController {
 
     /**
      * POST /proxyFHIR/type/{resourceType} - Create or update a resource of given type
-     * Body should contain the resource JSON. If 'id' present inside JSON, it will be used as resourceId.
+     * Body should contain the resource JSON. If 'id' present inside JSON, it will be used as resourceId,
+     * otherwise a UUID is assigned. Stored with one atomic upsert, see {@link ResourceUpserter}.
      */
     @PostMapping("/type/{resourceType}")
     public ResponseEntity<?> createOrUpdateResource(@PathVariable String resourceType, @RequestBody JsonNode body) {
         try {
-            String resourceId = null;
-            if (body.has("id")) resourceId = body.get("id").asText();
-            String content = body.toString();
-
-            if (resourceId != null) {
-                Optional<FhirResource> existing = repository.findByResourceTypeAndResourceId(resourceType, resourceId);
-                if (existing.isPresent()) {
-                    FhirResource r = existing.get();
-                    r.setContent(content);
-                    r.setLastUpdated(LocalDateTime.now());
-                    repository.save(r);
-                    return ResponseEntity.ok(Map.of("status", "updated", "resourceType", resourceType, "resourceId", resourceId));
-                }
+            if (!body.isObject()) throw new IllegalArgumentException("Body must be a JSON object");
+            String resourceId = body.path("id").asText(null);
+            if (resourceId == null) {
+                resourceId = UUID.randomUUID().toString();
+                ((ObjectNode) body).put("id", resourceId);
             }
 
-            // create new
-            FhirResource r = new FhirResource(resourceType, resourceId, content);
-            repository.save(r);
-            return ResponseEntity.status(HttpStatus.CREATED).body(Map.of("status", "created", "resourceType", resourceType, "resourceId", r.getResourceId()));
+            FhirResource r = new FhirResource(resourceType, resourceId, body.toString());
+            SearchParameterExtractor.apply(r, body);
+            ResourceUpserter.Result result = upserter.upsert(r);
+            if (!result.created()) {
+                return ResponseEntity.ok(Map.of("status", "updated", "resourceType", resourceType, "resourceId", resourceId));
+            }
+            resourceCounts.increment(resourceType);
+            return ResponseEntity.status(HttpStatus.CREATED).body(Map.of("status", "created", "resourceType", resourceType, "resourceId", resourceId));
         } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", e.getMessage()));
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", String.valueOf(e.getMessage())));
         }
     }
 
@@ -143,8 +198,10 @@ public class FhirResourceController {
      */
     @DeleteMapping("/{id}")
     public ResponseEntity<Map<String, Object>> deleteResource(@PathVariable Long id) {
-        if (repository.existsById(id)) {
-            repository.deleteById(id);
+        Optional<FhirResource> existing = repository.findById(id);
+        if (existing.isPresent()) {
+            repository.delete(existing.get());
+            resourceCounts.decrement(existing.get().getResourceType());
             return ResponseEntity.ok(Map.of(
                 "status", "success",
                 "message", "Resource deleted",
@@ -163,7 +220,7 @@ public class FhirResourceController {
      */
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> health() {
-        long count = repository.count();
+        long count = resourceCounts.total();
         return ResponseEntity.ok(Map.of(
             "status", "UP",
             "service", "FHIR Proxy",
@@ -1,16 +1,31 @@
 package com.project.proxyfhir.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.project.proxyfhir.model.FhirResource;
 import com.project.proxyfhir.repository.FhirResourceRepository;
+import com.project.proxyfhir.search.DateParam;
+import com.project.proxyfhir.search.PageCursor;
+import com.project.proxyfhir.search.QuantityParam;
+import com.project.proxyfhir.search.ResourceSpecifications;
+import com.project.proxyfhir.search.SearchParameterExtractor;
+import com.project.proxyfhir.search.TokenParam;
+import com.project.proxyfhir.service.ResourceCache;
+import com.project.proxyfhir.service.ResourceCountService;
+import com.project.proxyfhir.storage.ContentStorage;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -25,9 +40,23 @@ import java.util.Optional;
 @RequestMapping("/api")
 public class FhirResourceTypeController {
 
+    private static final String API_BASE = "/api/";
+    private static final int MAX_PAGE_SIZE = 1000;
+
     @Autowired
     private FhirResourceRepository repository;
 
+    @Autowired
+    private ResourceCountService resourceCounts;
+
+    @Autowired
+    private ContentStorage contentStorage;
+
+    @Autowired
+    private ResourceCache resourceCache;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
     @GetMapping("/health")
     public ResponseEntity<Map<String, String>> healthCheck() {
         return ResponseEntity.ok(Map.of("status", "FHIR ResourceType API is running"));
@@ -38,10 +67,9 @@ public class FhirResourceTypeController {
     @GetMapping("/Patient")
     public ResponseEntity<Map<String, Object>> listPatients(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size) {
-        Pageable pageable = PageRequest.of(page, size);
-        List<FhirResource> patients = repository.findByResourceType("Patient");
-        return buildBundleResponse("Patient", patients, page, size);
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor) {
+        return searchResources("Patient", null, page, size, cursor);
     }
 
     @GetMapping("/Patient/{id}")
@@ -55,13 +83,9 @@ public class FhirResourceTypeController {
     public ResponseEntity<Map<String, Object>> listConditions(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor,
             @RequestParam(required = false) String patient) {
-        if (patient != null) {
-            // Filter by patient reference
-            return searchResourcesByPatient("Condition", patient, page, size);
-        }
-        List<FhirResource> conditions = repository.findByResourceType("Condition");
-        return buildBundleResponse("Condition", conditions, page, size);
+        return searchResources("Condition", patient, page, size, cursor);
     }
 
     @GetMapping("/Condition/{id}")
@@ -75,13 +99,15 @@ public class FhirResourceTypeController {
     public ResponseEntity<Map<String, Object>> listObservations(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor,
             @RequestParam(required = false) String patient,
-            @RequestParam(required = false) String code) {
-        if (patient != null) {
-            return searchResourcesByPatient("Observation", patient, page, size);
-        }
-        List<FhirResource> observations = repository.findByResourceType("Observation");
-        return buildBundleResponse("Observation", observations, page, size);
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String code,
+            @RequestParam(required = false) List<String> date,
+            @RequestParam(name = "value-quantity", required = false) List<String> valueQuantity) {
+        return searchResources("Observation", patient,
+                searchParams("status", status, "code", code, "date", date, "value-quantity", valueQuantity),
+                page, size, cursor);
     }
 
     @GetMapping("/Observation/{id}")
@@ -95,12 +121,10 @@ public class FhirResourceTypeController {
     public ResponseEntity<Map<String, Object>> listEncounters(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
-            @RequestParam(required = false) String patient) {
-        if (patient != null) {
-            return searchResourcesByPatient("Encounter", patient, page, size);
-        }
-        List<FhirResource> encounters = repository.findByResourceType("Encounter");
-        return buildBundleResponse("Encounter", encounters, page, size);
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String patient,
+            @RequestParam(required = false) String status) {
+        return searchResources("Encounter", patient, searchParams("status", status), page, size, cursor);
     }
 
     @GetMapping("/Encounter/{id}")
@@ -114,12 +138,10 @@ public class FhirResourceTypeController {
     public ResponseEntity<Map<String, Object>> listProcedures(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
-            @RequestParam(required = false) String patient) {
-        if (patient != null) {
-            return searchResourcesByPatient("Procedure", patient, page, size);
-        }
-        List<FhirResource> procedures = repository.findByResourceType("Procedure");
-        return buildBundleResponse("Procedure", procedures, page, size);
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String patient,
+            @RequestParam(required = false) String status) {
+        return searchResources("Procedure", patient, searchParams("status", status), page, size, cursor);
     }
 
     @GetMapping("/Procedure/{id}")
@@ -133,12 +155,10 @@ public class FhirResourceTypeController {
     public ResponseEntity<Map<String, Object>> listMedicationRequests(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
-            @RequestParam(required = false) String patient) {
-        if (patient != null) {
-            return searchResourcesByPatient("MedicationRequest", patient, page, size);
-        }
-        List<FhirResource> meds = repository.findByResourceType("MedicationRequest");
-        return buildBundleResponse("MedicationRequest", meds, page, size);
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String patient,
+            @RequestParam(required = false) String status) {
+        return searchResources("MedicationRequest", patient, searchParams("status", status), page, size, cursor);
     }
 
     @GetMapping("/MedicationRequest/{id}")
@@ -152,12 +172,10 @@ public class FhirResourceTypeController {
     public ResponseEntity<Map<String, Object>> listDiagnosticReports(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
-            @RequestParam(required = false) String patient) {
-        if (patient != null) {
-            return searchResourcesByPatient("DiagnosticReport", patient, page, size);
-        }
-        List<FhirResource> reports = repository.findByResourceType("DiagnosticReport");
-        return buildBundleResponse("DiagnosticReport", reports, page, size);
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String patient,
+            @RequestParam(required = false) String status) {
+        return searchResources("DiagnosticReport", patient, searchParams("status", status), page, size, cursor);
     }
 
     @GetMapping("/DiagnosticReport/{id}")
@@ -171,12 +189,10 @@ public class FhirResourceTypeController {
     public ResponseEntity<Map<String, Object>> listDocumentReferences(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
-            @RequestParam(required = false) String patient) {
-        if (patient != null) {
-            return searchResourcesByPatient("DocumentReference", patient, page, size);
-        }
-        List<FhirResource> docs = repository.findByResourceType("DocumentReference");
-        return buildBundleResponse("DocumentReference", docs, page, size);
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String patient,
+            @RequestParam(required = false) String status) {
+        return searchResources("DocumentReference", patient, searchParams("status", status), page, size, cursor);
     }
 
     @GetMapping("/DocumentReference/{id}")
@@ -190,12 +206,10 @@ public class FhirResourceTypeController {
     public ResponseEntity<Map<String, Object>> listImmunizations(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
-            @RequestParam(required = false) String patient) {
-        if (patient != null) {
-            return searchResourcesByPatient("Immunization", patient, page, size);
-        }
-        List<FhirResource> immunizations = repository.findByResourceType("Immunization");
-        return buildBundleResponse("Immunization", immunizations, page, size);
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String patient,
+            @RequestParam(required = false) String status) {
+        return searchResources("Immunization", patient, searchParams("status", status), page, size, cursor);
     }
 
     @GetMapping("/Immunization/{id}")
@@ -208,9 +222,9 @@ public class FhirResourceTypeController {
     @GetMapping("/Device")
     public ResponseEntity<Map<String, Object>> listDevices(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size) {
-        List<FhirResource> devices = repository.findByResourceType("Device");
-        return buildBundleResponse("Device", devices, page, size);
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor) {
+        return searchResources("Device", null, page, size, cursor);
     }
 
     @GetMapping("/Device/{id}")
@@ -223,9 +237,9 @@ public class FhirResourceTypeController {
     @GetMapping("/Location")
     public ResponseEntity<Map<String, Object>> listLocations(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size) {
-        List<FhirResource> locations = repository.findByResourceType("Location");
-        return buildBundleResponse("Location", locations, page, size);
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor) {
+        return searchResources("Location", null, page, size, cursor);
     }
 
     @GetMapping("/Location/{id}")
@@ -238,9 +252,9 @@ public class FhirResourceTypeController {
     @GetMapping("/Organization")
     public ResponseEntity<Map<String, Object>> listOrganizations(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size) {
-        List<FhirResource> orgs = repository.findByResourceType("Organization");
-        return buildBundleResponse("Organization", orgs, page, size);
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor) {
+        return searchResources("Organization", null, page, size, cursor);
     }
 
     @GetMapping("/Organization/{id}")
@@ -253,9 +267,9 @@ public class FhirResourceTypeController {
     @GetMapping("/Practitioner")
     public ResponseEntity<Map<String, Object>> listPractitioners(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size) {
-        List<FhirResource> practitioners = repository.findByResourceType("Practitioner");
-        return buildBundleResponse("Practitioner", practitioners, page, size);
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor) {
+        return searchResources("Practitioner", null, page, size, cursor);
     }
 
     @GetMapping("/Practitioner/{id}")
@@ -268,9 +282,9 @@ public class FhirResourceTypeController {
     @GetMapping("/PractitionerRole")
     public ResponseEntity<Map<String, Object>> listPractitionerRoles(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size) {
-        List<FhirResource> roles = repository.findByResourceType("PractitionerRole");
-        return buildBundleResponse("PractitionerRole", roles, page, size);
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor) {
+        return searchResources("PractitionerRole", null, page, size, cursor);
     }
 
     @GetMapping("/PractitionerRole/{id}")
@@ -281,59 +295,184 @@ public class FhirResourceTypeController {
     // ============== Helper Methods ==============
 
     private ResponseEntity<?> getResourceByTypeAndId(String resourceType, String resourceId) {
-        List<FhirResource> resources = repository.findByResourceType(resourceType);
-        Optional<FhirResource> found = resources.stream()
-                .filter(r -> resourceId.equals(r.getResourceId()))
-                .findFirst();
-
+        // From the resource cache, else a single index probe on uk_fhir_resource_type_resource_id
+        Optional<FhirResource> found = resourceCache.find(resourceType, resourceId);
         if (found.isPresent()) {
             return ResponseEntity.ok(found.get());
         }
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
-            "resourceType", "OperationOutcome",
-            "issue", List.of(Map.of(
-                "severity", "error",
-                "code", "not-found",
-                "diagnostics", resourceType + "/" + resourceId + " not found"
-            ))
-        ));
-    }
+        return operationOutcome(HttpStatus.NOT_FOUND, "not-found", resourceType + "/" + resourceId + " not found");
+    }
+
+    /**
+     * Reads one page of a searchset directly from the database. Pages are addressed by an opaque
+     * keyset cursor (see {@link PageCursor}); the legacy page parameter still works but costs an OFFSET.
+     */
+    private ResponseEntity<Map<String, Object>> searchResources(
+            String resourceType, String patient, int page, int size, String cursor) {
+        return searchResources(resourceType, patient, Map.of(), page, size, cursor);
+    }
+
+    /**
+     * Search with additional parameters (name -> values, all ANDed): code, date and value-quantity
+     * use the extracted search columns; status is a jsonb containment query on the content and
+     * requires fhir.storage.content-format=jsonb.
+     */
+    private ResponseEntity<Map<String, Object>> searchResources(
+            String resourceType, String patient, Map<String, List<String>> params, int page, int size, String cursor) {
+        if (params.containsKey("status") && !contentStorage.isJsonb()) {
+            return operationOutcome(HttpStatus.BAD_REQUEST, "not-supported",
+                    "Searching by status requires fhir.storage.content-format=jsonb");
+        }
+        Specification<FhirResource> spec = ResourceSpecifications.resourceType(resourceType);
+        String patientId = null;
+        if (patient != null) {
+            patientId = SearchParameterExtractor.normalizePatientId(patient);
+            if (patientId == null) {
+                return operationOutcome(HttpStatus.BAD_REQUEST, "invalid", "Invalid patient reference: " + patient);
+            }
+            spec = spec.and(ResourceSpecifications.patient(patientId));
+        }
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            return operationOutcome(HttpStatus.BAD_REQUEST, "invalid", "size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        try {
+            for (Map.Entry<String, List<String>> param : params.entrySet()) {
+                for (String value : param.getValue()) {
+                    spec = spec.and(searchParameter(param.getKey(), value));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return operationOutcome(HttpStatus.BAD_REQUEST, "invalid", e.getMessage());
+        }
 
-    private ResponseEntity<Map<String, Object>> searchResourcesByPatient(
-            String resourceType, String patientId, int page, int size) {
-        // Simple filter - in production you'd query JSON content
-        List<FhirResource> allResources = repository.findByResourceType(resourceType);
-        List<FhirResource> filtered = allResources.stream()
-                .filter(r -> r.getContent() != null && r.getContent().contains("Patient/" + patientId))
-                .toList();
-        return buildBundleResponse(resourceType, filtered, page, size);
-    }
+        PageCursor pageCursor = PageCursor.FIRST;
+        if (cursor != null) {
+            try {
+                pageCursor = PageCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return operationOutcome(HttpStatus.BAD_REQUEST, "invalid", e.getMessage());
+            }
+        }
 
-    private ResponseEntity<Map<String, Object>> buildBundleResponse(
-            String resourceType, List<FhirResource> resources, int page, int size) {
-        int start = page * size;
-        int end = Math.min(start + size, resources.size());
-        List<FhirResource> pageResources = (start < resources.size())
-                ? resources.subList(start, end)
-                : List.of();
+        List<FhirResource> resources;
+        boolean hasNext;
+        boolean hasPrevious;
+        if (cursor == null && page > 0) {
+            long offset = (long) page * size;
+            if (offset > Integer.MAX_VALUE) {
+                return operationOutcome(HttpStatus.BAD_REQUEST, "invalid", "page is too large; follow the next links instead");
+            }
+            // one extra row instead of a COUNT(*) to learn whether there is a next page
+            resources = new ArrayList<>(repository.findRange(spec, Sort.by("id"), (int) offset, size + 1));
+            hasNext = resources.size() > size;
+            if (hasNext) resources.remove(size);
+            hasPrevious = true;
+        } else {
+            // fetch one extra row to learn whether there is another page in the same direction
+            Specification<FhirResource> keyset = spec.and(pageCursor.forward()
+                    ? ResourceSpecifications.idBetween(pageCursor.id(), Long.MAX_VALUE)
+                    : ResourceSpecifications.idBetween(0L, pageCursor.id()));
+            Sort sort = pageCursor.forward() ? Sort.by("id") : Sort.by("id").descending();
+            resources = new ArrayList<>(repository.findBy(keyset, q -> q.sortBy(sort).limit(size + 1).all()));
+            boolean more = resources.size() > size;
+            if (more) resources.remove(size);
+            if (pageCursor.forward()) {
+                hasNext = more;
+                hasPrevious = pageCursor.id() > 0;
+            } else {
+                // walked backwards from the cursor: restore ascending order for the response
+                Collections.reverse(resources);
+                hasNext = true;
+                hasPrevious = more;
+            }
+        }
+
+        // total is only reported where it is cheap: counters or the patient index
+        Long total = null;
+        if (params.isEmpty()) {
+            total = patientId != null
+                    ? repository.countByResourceTypeAndPatientId(resourceType, patientId)
+                    : resourceCounts.count(resourceType);
+        }
+
+        StringBuilder query = new StringBuilder(API_BASE + resourceType + "?size=" + size);
+        if (patientId != null) query.append("&patient=").append(encode(patientId));
+        params.forEach((name, values) -> values.forEach(
+                value -> query.append('&').append(name).append('=').append(encode(value))));
+        String baseQuery = query.toString();
+        List<Map<String, String>> links = new ArrayList<>();
+        links.add(Map.of("relation", "self", "url", cursor != null
+                ? baseQuery + "&cursor=" + cursor
+                : baseQuery + "&page=" + page));
+        if (hasNext && !resources.isEmpty()) {
+            long lastId = resources.get(resources.size() - 1).getId();
+            links.add(Map.of("relation", "next", "url", baseQuery + "&cursor=" + PageCursor.after(lastId).encode()));
+        }
+        if (hasPrevious && !resources.isEmpty()) {
+            long firstId = resources.get(0).getId();
+            links.add(Map.of("relation", "previous", "url", baseQuery + "&cursor=" + PageCursor.before(firstId).encode()));
+        }
 
         Map<String, Object> bundle = new HashMap<>();
         bundle.put("resourceType", "Bundle");
         bundle.put("type", "searchset");
-        bundle.put("total", resources.size());
-        bundle.put("entry", pageResources.stream()
+        if (total != null) bundle.put("total", total);
+        bundle.put("entry", resources.stream()
                 .map(r -> Map.of(
-                    "fullUrl", "/api/fhir/" + resourceType + "/" + r.getResourceId(),
+                    "fullUrl", API_BASE + resourceType + "/" + r.getResourceId(),
                     "resource", r
                 ))
                 .toList());
-        bundle.put("link", List.of(
-            Map.of("relation", "self", "url", "/api/fhir/" + resourceType + "?page=" + page + "&size=" + size)
-        ));
+        bundle.put("link", links);
 
         return ResponseEntity.ok(bundle);
     }
 
+    /**
+     * @throws IllegalArgumentException if the value is not valid for the parameter
+     */
+    private Specification<FhirResource> searchParameter(String name, String value) {
+        return switch (name) {
+            case "code" -> ResourceSpecifications.code(TokenParam.parse(value));
+            case "date" -> ResourceSpecifications.date(DateParam.parse(value));
+            case "value-quantity" -> ResourceSpecifications.valueQuantity(QuantityParam.parse(value));
+            case "status" -> ResourceSpecifications.contentContains(
+                    mapper.createObjectNode().put("status", value).toString());
+            default -> throw new IllegalArgumentException("Unsupported search parameter: " + name);
+        };
+    }
+
+    /**
+     * Collects the non-empty search parameters of an endpoint, keeping the request order for links.
+     */
+    private static Map<String, List<String>> searchParams(Object... nameValues) {
+        Map<String, List<String>> params = new LinkedHashMap<>();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            Object value = nameValues[i + 1];
+            if (value instanceof String single) {
+                params.put((String) nameValues[i], List.of(single));
+            } else if (value instanceof List<?> list && !list.isEmpty()) {
+                params.put((String) nameValues[i], list.stream().map(String::valueOf).toList());
+            }
+        }
+        return params;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private ResponseEntity<Map<String, Object>> operationOutcome(HttpStatus status, String code, String diagnostics) {
+        return ResponseEntity.status(status).body(Map.of(
+            "resourceType", "OperationOutcome",
+            "issue", List.of(Map.of(
+                "severity", "error",
+                "code", code,
+                "diagnostics", diagnostics
+            ))
+        ));
+    }
+
     // ============== Statistics Endpoint ==============
 
     @GetMapping("/stats")
@@ -347,7 +486,7 @@ public class FhirResourceTypeController {
         Map<String, Long> counts = new HashMap<>();
         long total = 0;
         for (String type : resourceTypes) {
-            long count = repository.findByResourceType(type).size();
+            long count = resourceCounts.count(type);
             counts.put(type, count);
             total += count;
         }
@@ -0,0 +1,50 @@
+package com.project.proxyfhir.controller;
+
+import com.project.proxyfhir.importer.ImportMetrics;
+import com.project.proxyfhir.importer.SyntheaImporterRunner;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Control endpoints for the background Synthea import.
+ */
+@RestController
+@RequestMapping("/bulk/import")
+public class ImportController {
+
+    @Autowired
+    private SyntheaImporterRunner importerRunner;
+
+    @Autowired
+    private ImportMetrics importMetrics;
+
+    /**
+     * Startup import state plus live progress of the current (or last) import run, which may also be
+     * a directory-watch import: bytes and resources done, throughput, ETA and per-file figures.
+     */
+    @GetMapping("/status")
+    public Map<String, Object> status() {
+        return Map.of(
+                "startupImport", importerRunner.status(),
+                "progress", importMetrics.progress());
+    }
+
+    @PostMapping("/cancel")
+    public ResponseEntity<Map<String, Object>> cancel() {
+        if (!importerRunner.cancel()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(
+                    "message", "No import is running",
+                    "state", importerRunner.status().state()));
+        }
+        return ResponseEntity.accepted().body(Map.of(
+                "message", "Import cancellation requested",
+                "state", importerRunner.status().state()));
+    }
+}
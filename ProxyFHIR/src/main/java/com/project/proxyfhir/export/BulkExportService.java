@@ -0,0 +1,378 @@
+package com.project.proxyfhir.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.proxyfhir.importer.FhirJson;
+import com.project.proxyfhir.storage.ContentCodec;
+import com.project.proxyfhir.storage.DatabaseClock;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous bulk export ($export) of fhir_resource into NDJSON files, one job directory per
+ * export under fhir.export.dir, with files named like the Synthea output (Patient.000.ndjson, ...).
+ *
+ * Each resource type is read in id order with a keyset cursor over idx_fhir_resource_type_id, one
+ * page (fhir.export.page-size rows) per short query, and written straight to disk; a file is rolled
+ * every fhir.export.max-resources-per-file resources and becomes visible only once complete. Memory
+ * is therefore bounded by one page, and since jobs run on at most fhir.export.max-concurrent-jobs
+ * threads (further kickoffs wait in a queue of fhir.export.max-queued-jobs), exports hold at most
+ * that many pooled connections at a time and never starve interactive reads. _since exports read
+ * only the rows updated since then, through idx_fhir_resource_type_last_updated.
+ *
+ * last_updated is stamped by the database clock when the writing transaction starts, so a row may
+ * commit after an export began and still carry an earlier time. The reported transactionTime is
+ * therefore the database time at kickoff minus fhir.export.since-overlap-ms (at least the longest
+ * write transaction): an export started from it may repeat rows, but never misses one.
+ */
+@Service
+public class BulkExportService {
+
+    public enum State { ACCEPTED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    public record OutputFile(String fileName, String resourceType, long count, long size) {}
+
+    public record Status(String jobId, State state, String request, Instant transactionTime, Instant startedAt,
+                         Instant finishedAt, long resourcesTotal, long resourcesExported, String currentType,
+                         List<OutputFile> output, String error) {}
+
+    private static final Logger log = LoggerFactory.getLogger(BulkExportService.class);
+    private static final String PART_SUFFIX = ".part";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ContentCodec codec;
+    private final DatabaseClock clock;
+    private final Path exportDir;
+    private final int pageSize;
+    private final int maxResourcesPerFile;
+    private final Duration retention;
+    private final Duration sinceOverlap;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final ObjectMapper mapper = FhirJson.newMapper();
+
+    public BulkExportService(JdbcTemplate jdbcTemplate, ContentCodec codec, DatabaseClock clock,
+                             @Value("${fhir.export.dir:${java.io.tmpdir}/proxyfhir-export}") String exportDir,
+                             @Value("${fhir.export.page-size:1000}") int pageSize,
+                             @Value("${fhir.export.max-resources-per-file:100000}") int maxResourcesPerFile,
+                             @Value("${fhir.export.max-concurrent-jobs:1}") int maxConcurrentJobs,
+                             @Value("${fhir.export.max-queued-jobs:4}") int maxQueuedJobs,
+                             @Value("${fhir.export.retention-ms:86400000}") long retentionMs,
+                             @Value("${fhir.export.since-overlap-ms:300000}") long sinceOverlapMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.codec = codec;
+        this.clock = clock;
+        this.exportDir = Paths.get(exportDir).toAbsolutePath().normalize();
+        this.pageSize = pageSize;
+        this.maxResourcesPerFile = maxResourcesPerFile;
+        this.retention = Duration.ofMillis(retentionMs);
+        this.sinceOverlap = Duration.ofMillis(sinceOverlapMs);
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxQueuedJobs)), r -> {
+                    Thread t = new Thread(r, "bulk-export-" + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Starts an export and returns its job id. Only resources updated at or after since are exported
+     * when it is given, and only the given types when types is not null. The job's transactionTime is
+     * taken before any row is read and set back by the since overlap, so it can be passed as the since
+     * of the next export.
+     *
+     * @throws RejectedExecutionException if the export queue is full
+     */
+    public String start(String request, Instant since, Set<String> types) {
+        Job job = new Job(UUID.randomUUID().toString().replace("-", ""), request,
+                clock.now().minus(sinceOverlap), since, types);
+        jobs.put(job.id, job);
+        try {
+            job.future = executor.submit(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            throw e;
+        }
+        log.info("Bulk export {}: accepted ({})", job.id, request);
+        return job.id;
+    }
+
+    public Optional<Status> status(String jobId) {
+        Job job = jobs.get(jobId);
+        return job != null ? Optional.of(job.status()) : Optional.empty();
+    }
+
+    /**
+     * Directory holding the finished files of a completed job.
+     */
+    public Optional<Path> directory(String jobId) {
+        Job job = jobs.get(jobId);
+        return job != null && job.state == State.COMPLETED ? Optional.of(jobDir(jobId)) : Optional.empty();
+    }
+
+    /**
+     * Cancels a job (or deletes the files of a finished one). Returns false for an unknown job.
+     */
+    public boolean cancel(String jobId) {
+        Job job = jobs.remove(jobId);
+        if (job == null) return false;
+        synchronized (job) {
+            if (job.state == State.ACCEPTED || job.state == State.RUNNING) {
+                job.state = State.CANCELLED;
+                job.finishedAt = Instant.now();
+            }
+        }
+        Future<?> future = job.future;
+        if (future != null) future.cancel(true);
+        // a running job deletes its own directory once it notices the cancellation
+        if (job.state != State.CANCELLED || future == null || future.isDone()) deleteJobDir(jobId);
+        log.info("Bulk export {}: deleted", jobId);
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${fhir.export.cleanup-interval-ms:3600000}")
+    public void purgeExpired() {
+        Instant cutoff = Instant.now().minus(retention);
+        for (Job job : jobs.values()) {
+            if (job.finishedAt != null && job.finishedAt.isBefore(cutoff)) {
+                cancel(job.id);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(Job job) {
+        synchronized (job) {
+            if (job.state != State.ACCEPTED) return;
+            job.state = State.RUNNING;
+            job.startedAt = Instant.now();
+        }
+        Path dir = jobDir(job.id);
+        try {
+            Files.createDirectories(dir);
+            Map<String, Long> types = new LinkedHashMap<>();
+            RowCallbackHandler countByType = rs -> {
+                if (job.types == null || job.types.contains(rs.getString(1))) {
+                    types.put(rs.getString(1), rs.getLong(2));
+                }
+            };
+            if (job.since == null) {
+                jdbcTemplate.query("SELECT resource_type, count(*) FROM fhir_resource WHERE resource_type IS NOT NULL "
+                        + "GROUP BY resource_type ORDER BY resource_type", countByType);
+            } else {
+                // index-only scan of idx_fhir_resource_type_last_updated
+                jdbcTemplate.query("SELECT resource_type, count(*) FROM fhir_resource WHERE resource_type IS NOT NULL "
+                        + "AND last_updated >= ? GROUP BY resource_type ORDER BY resource_type", countByType,
+                        clock.toLocal(job.since));
+            }
+            job.resourcesTotal = types.values().stream().mapToLong(Long::longValue).sum();
+            for (String type : types.keySet()) {
+                job.currentType = type;
+                exportType(job, dir, type);
+            }
+            job.currentType = null;
+            if (!finish(job, State.COMPLETED, null)) {
+                deleteJobDir(job.id);
+                return;
+            }
+            log.info("Bulk export {}: {} resources in {} files", job.id, job.resourcesExported.get(), job.output.size());
+        } catch (InterruptedException e) {
+            deleteJobDir(job.id);
+        } catch (Exception e) {
+            if (job.state == State.CANCELLED) {
+                deleteJobDir(job.id);
+                return;
+            }
+            log.warn("Bulk export {} failed: {}", job.id, e.toString());
+            deleteJobDir(job.id);
+            finish(job, State.FAILED, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the rows of one type, one page per query, rolling files at maxResourcesPerFile. A full
+     * export walks idx_fhir_resource_type_id in id order; a _since export walks
+     * idx_fhir_resource_type_last_updated in (last_updated, id) order from the since time, so it only
+     * reads the rows that changed.
+     */
+    private void exportType(Job job, Path dir, String type) throws IOException, InterruptedException {
+        long[] lastId = {0L};
+        LocalDateTime[] lastUpdated = {job.since != null ? clock.toLocal(job.since) : null};
+        int[] rows = new int[1];
+        try (TypeWriter writer = new TypeWriter(job, dir, type)) {
+            do {
+                if (Thread.currentThread().isInterrupted() || job.state == State.CANCELLED) {
+                    throw new InterruptedException("Bulk export cancelled");
+                }
+                rows[0] = 0;
+                RowCallbackHandler page = rs -> {
+                    lastId[0] = rs.getLong(1);
+                    if (lastUpdated[0] != null) lastUpdated[0] = rs.getObject(5, LocalDateTime.class);
+                    rows[0]++;
+                    writer.write(codec.read(rs, 2));
+                };
+                if (lastUpdated[0] == null) {
+                    jdbcTemplate.query("SELECT id, content, content_zip, content_dictionary_id FROM fhir_resource "
+                            + "WHERE resource_type = ? AND id > ? ORDER BY id LIMIT ?", page, type, lastId[0], pageSize);
+                } else {
+                    // (since, 0) as the first key: every row updated at or after since
+                    jdbcTemplate.query("SELECT id, content, content_zip, content_dictionary_id, last_updated "
+                            + "FROM fhir_resource WHERE resource_type = ? AND (last_updated, id) > (?, ?) "
+                            + "ORDER BY last_updated, id LIMIT ?",
+                            page, type, lastUpdated[0], lastId[0], pageSize);
+                }
+            } while (rows[0] == pageSize);
+        }
+    }
+
+    /**
+     * Returns false if the job was cancelled meanwhile.
+     */
+    private boolean finish(Job job, State state, String error) {
+        synchronized (job) {
+            if (job.state != State.RUNNING) return false;
+            job.state = state;
+            job.error = error;
+            job.finishedAt = Instant.now();
+            return true;
+        }
+    }
+
+    private Path jobDir(String jobId) {
+        return exportDir.resolve(jobId);
+    }
+
+    private void deleteJobDir(String jobId) {
+        try {
+            FileSystemUtils.deleteRecursively(jobDir(jobId));
+        } catch (IOException e) {
+            log.warn("Bulk export {}: could not delete {}: {}", jobId, jobDir(jobId), e.getMessage());
+        }
+    }
+
+    /**
+     * NDJSON output of one resource type, split into Type.000.ndjson, Type.001.ndjson, ... Each file is
+     * written as .part and renamed when full, so the job directory only ever holds complete files.
+     */
+    private final class TypeWriter implements AutoCloseable {
+        private final Job job;
+        private final Path dir;
+        private final String type;
+        private int fileIndex;
+        private Path part;
+        private BufferedWriter out;
+        private long count;
+
+        TypeWriter(Job job, Path dir, String type) {
+            this.job = job;
+            this.dir = dir;
+            this.type = type;
+        }
+
+        void write(String content) {
+            if (content == null || content.isBlank()) return;
+            try {
+                if (out == null) {
+                    part = dir.resolve(String.format("%s.%03d.ndjson%s", type, fileIndex, PART_SUFFIX));
+                    out = Files.newBufferedWriter(part, StandardCharsets.UTF_8);
+                }
+                out.write(singleLine(content));
+                out.write('\n');
+                job.resourcesExported.incrementAndGet();
+                if (++count == maxResourcesPerFile) {
+                    close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null) return;
+            out.close();
+            out = null;
+            String fileName = part.getFileName().toString();
+            Path file = part.resolveSibling(fileName.substring(0, fileName.length() - PART_SUFFIX.length()));
+            Files.move(part, file, StandardCopyOption.ATOMIC_MOVE);
+            job.output.add(new OutputFile(file.getFileName().toString(), type, count, Files.size(file)));
+            fileIndex++;
+            count = 0;
+        }
+
+        // stored content is usually compact, but resources POSTed pretty-printed must be re-serialized
+        private String singleLine(String content) throws IOException {
+            if (content.indexOf('\n') < 0 && content.indexOf('\r') < 0) return content;
+            return mapper.writeValueAsString(mapper.readTree(content));
+        }
+    }
+
+    private static final class Job {
+        final String id;
+        final String request;
+        final Instant transactionTime;
+        final Instant since;
+        final Set<String> types;
+        final AtomicLong resourcesExported = new AtomicLong();
+        final List<OutputFile> output = new CopyOnWriteArrayList<>();
+        volatile State state = State.ACCEPTED;
+        volatile Future<?> future;
+        volatile Instant startedAt;
+        volatile Instant finishedAt;
+        volatile long resourcesTotal;
+        volatile String currentType;
+        volatile String error;
+
+        Job(String id, String request, Instant transactionTime, Instant since, Set<String> types) {
+            this.id = id;
+            this.request = request;
+            this.transactionTime = transactionTime;
+            this.since = since;
+            this.types = types;
+        }
+
+        Status status() {
+            return new Status(id, state, request, transactionTime, startedAt, finishedAt, resourcesTotal,
+                    resourcesExported.get(), currentType, new ArrayList<>(output), error);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.project.proxyfhir.importer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import com.project.proxyfhir.search.SearchParameterExtractor;
+import com.project.proxyfhir.service.ResourceCountService;
+import com.project.proxyfhir.storage.DatabaseClock;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Stores the body of POST /ressources. transaction, batch and collection Bundles are split into
+ * their entry resources, which are upserted by (resourceType, id) in one database transaction;
+ * any other body (a single resource, a document or message Bundle) is stored as one resource.
+ *
+ * The body is parsed as a stream: when "type" comes before "entry", as serializers write it, only
+ * the current chunk of fhir.bundle.batch-size entries is held in memory. Each chunk costs one
+ * lookup per resource type for the ids already stored, then its inserts and updates are sent as
+ * JDBC batches. A transaction Bundle is all or nothing: an invalid entry rolls everything back.
+ * In batch and collection Bundles an invalid entry only fails that entry.
+ */
+@Component
+public class BundleIngester {
+
+    public static final Set<String> DECOMPOSED_TYPES = Set.of("transaction", "batch", "collection");
+
+    /**
+     * Outcome of one entry, or of the whole body when it was stored as a single resource.
+     * status is an HTTP status code; resourceType and resourceId are null when the entry failed.
+     */
+    public record EntryOutcome(int status, String resourceType, String resourceId, String diagnostics) {
+
+        static EntryOutcome error(String diagnostics) {
+            return new EntryOutcome(400, null, null, diagnostics);
+        }
+    }
+
+    /**
+     * bundleType is null when the body was stored as a single resource, whose outcome is then the
+     * only entry.
+     */
+    public record Result(String bundleType, List<EntryOutcome> entries, LocalDateTime timestamp) {}
+
+    /**
+     * An invalid entry in a transaction Bundle; nothing was stored.
+     */
+    public static class InvalidEntryException extends RuntimeException {
+
+        private final int index;
+
+        InvalidEntryException(int index, String message) {
+            super("Bundle entry " + index + ": " + message);
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(BundleIngester.class);
+    private static final String URN_UUID = "urn:uuid:";
+
+    private final FhirResourceRepository repository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final ResourceCountService resourceCounts;
+    private final DatabaseClock clock;
+    private final int batchSize;
+    private final ObjectMapper mapper = FhirJson.newMapper();
+
+    public BundleIngester(FhirResourceRepository repository, EntityManager entityManager,
+                          PlatformTransactionManager transactionManager, ResourceCountService resourceCounts,
+                          DatabaseClock clock, @Value("${fhir.bundle.batch-size:1000}") int batchSize) {
+        this.repository = repository;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.resourceCounts = resourceCounts;
+        this.clock = clock;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @throws InvalidEntryException if an entry of a transaction Bundle is invalid
+     * @throws IllegalArgumentException if the body is not a JSON object
+     * @throws UncheckedIOException if the body is not valid JSON
+     */
+    public Result ingest(InputStream body) {
+        long start = System.nanoTime();
+        Ingestion ingestion = transactionTemplate.execute(status -> {
+            try (JsonParser parser = mapper.getFactory().createParser(body)) {
+                return parse(parser);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        ingestion.created.forEach(resourceCounts::increment);
+        if (ingestion.bundleType != null) {
+            log.debug("Bundle ingest: {} {} entries in {} ms", ingestion.outcomes.size(), ingestion.bundleType,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        return new Result(ingestion.bundleType, ingestion.outcomes, ingestion.timestamp);
+    }
+
+    private Ingestion parse(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Body must be a FHIR resource or Bundle (a JSON object)");
+        }
+        ObjectNode root = mapper.createObjectNode();
+        Ingestion ingestion = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("entry".equals(field) && value == JsonToken.START_ARRAY && decomposed(root)) {
+                ingestion = new Ingestion(root.get("type").asText());
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    ingestion.add(parser.readValueAsTree());
+                }
+            } else {
+                root.set(field, parser.readValueAsTree());
+            }
+        }
+        if (ingestion == null && decomposed(root)) {
+            // "type" came after "entry": the entries were read into the tree
+            ingestion = new Ingestion(root.get("type").asText());
+            for (JsonNode entry : root.path("entry")) {
+                ingestion.add(entry);
+            }
+        }
+        if (ingestion == null) {
+            ingestion = new Ingestion(null);
+            ingestion.addResource(root);
+        }
+        ingestion.flush();
+        return ingestion;
+    }
+
+    private String json(JsonNode node) {
+        try {
+            return mapper.writeValueAsString(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean decomposed(ObjectNode root) {
+        return "Bundle".equals(root.path("resourceType").asText(null))
+                && DECOMPOSED_TYPES.contains(root.path("type").asText(""));
+    }
+
+    private record Pending(int index, String resourceType, String resourceId, ObjectNode resource) {}
+
+    /**
+     * State of one request: outcomes by entry index and the chunk of entries not yet written.
+     */
+    private class Ingestion {
+
+        final String bundleType;
+        final List<EntryOutcome> outcomes = new ArrayList<>();
+        final Map<String, Long> created = new HashMap<>();
+        // last_updated of every entry: the database clock, as for ResourceUpserter
+        final LocalDateTime timestamp = clock.localNow();
+        final List<Pending> pending = new ArrayList<>();
+
+        Ingestion(String bundleType) {
+            this.bundleType = bundleType;
+        }
+
+        void add(JsonNode entry) {
+            int index = outcomes.size();
+            outcomes.add(null);
+            try {
+                pending.add(resolve(index, entry));
+            } catch (IllegalArgumentException e) {
+                if ("transaction".equals(bundleType)) throw new InvalidEntryException(index, e.getMessage());
+                outcomes.set(index, EntryOutcome.error(e.getMessage()));
+            }
+            if (pending.size() >= batchSize) flush();
+        }
+
+        /**
+         * The body itself, stored under its own resourceType and id (a new UUID if it has none).
+         */
+        void addResource(ObjectNode resource) {
+            String resourceType = resource.path("resourceType").asText(null);
+            if (resourceType == null) throw new IllegalArgumentException("Body has no resourceType");
+            String id = resource.path("id").asText(null);
+            if (id == null) {
+                id = UUID.randomUUID().toString();
+                resource.put("id", id);
+            }
+            outcomes.add(null);
+            pending.add(new Pending(0, resourceType, id, resource));
+        }
+
+        /**
+         * Entry resources keep their id; one without is given the UUID of its urn:uuid fullUrl, so
+         * references between entries still resolve, or a new UUID. PUT takes the id from the url.
+         */
+        private Pending resolve(int index, JsonNode entry) {
+            JsonNode resource = entry.path("resource");
+            if (!resource.isObject()) throw new IllegalArgumentException("entry has no resource");
+            String resourceType = resource.path("resourceType").asText(null);
+            if (resourceType == null) throw new IllegalArgumentException("resource has no resourceType");
+            String id = resource.path("id").asText(null);
+
+            String method = entry.path("request").path("method").asText("");
+            switch (method) {
+                case "", "POST" -> {
+                    if (id == null) {
+                        String fullUrl = entry.path("fullUrl").asText("");
+                        id = fullUrl.startsWith(URN_UUID) ? fullUrl.substring(URN_UUID.length())
+                                : UUID.randomUUID().toString();
+                    }
+                }
+                case "PUT" -> {
+                    String url = entry.path("request").path("url").asText("");
+                    int query = url.indexOf('?');
+                    String[] parts = (query >= 0 ? url.substring(0, query) : url).split("/");
+                    if (parts.length != 2 || !parts[0].equals(resourceType) || parts[1].isEmpty()) {
+                        throw new IllegalArgumentException("PUT url must be " + resourceType + "/<id>: " + url);
+                    }
+                    if (id != null && !id.equals(parts[1])) {
+                        throw new IllegalArgumentException("resource id " + id + " does not match url " + url);
+                    }
+                    id = parts[1];
+                }
+                default -> throw new IllegalArgumentException("unsupported request method " + method);
+            }
+            ObjectNode node = (ObjectNode) resource;
+            if (!node.has("id")) node.put("id", id);
+            return new Pending(index, resourceType, id, node);
+        }
+
+        /**
+         * Writes the pending chunk: one IN query per resource type finds the stored rows, which are
+         * updated; the others are inserted. A resource repeated in the Bundle ends with its last version.
+         */
+        void flush() {
+            if (pending.isEmpty()) return;
+            Map<String, Set<String>> idsByType = new HashMap<>();
+            for (Pending p : pending) {
+                idsByType.computeIfAbsent(p.resourceType(), t -> new HashSet<>()).add(p.resourceId());
+            }
+            Map<String, FhirResource> byKey = new HashMap<>();
+            idsByType.forEach((type, ids) -> repository.findByResourceTypeAndResourceIdIn(type, ids)
+                    .forEach(r -> byKey.put(type + "/" + r.getResourceId(), r)));
+
+            List<FhirResource> toSave = new ArrayList<>();
+            for (Pending p : pending) {
+                String key = p.resourceType() + "/" + p.resourceId();
+                String content = json(p.resource());
+                FhirResource resource = byKey.get(key);
+                int status;
+                if (resource == null) {
+                    resource = new FhirResource(p.resourceType(), p.resourceId(), content);
+                    byKey.put(key, resource);
+                    toSave.add(resource);
+                    created.merge(p.resourceType(), 1L, Long::sum);
+                    status = 201;
+                } else {
+                    resource.setContent(content);
+                    if (resource.getId() != null) toSave.add(resource);
+                    status = 200;
+                }
+                resource.setLastUpdated(timestamp);
+                SearchParameterExtractor.apply(resource, p.resource());
+                outcomes.set(p.index(), new EntryOutcome(status, p.resourceType(), p.resourceId(), null));
+            }
+            repository.saveAll(toSave);
+            // keep the persistence context to one chunk
+            entityManager.flush();
+            entityManager.clear();
+            pending.clear();
+        }
+    }
+}
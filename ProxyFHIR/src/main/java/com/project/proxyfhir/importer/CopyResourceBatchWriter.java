@@ -0,0 +1,174 @@
+package com.project.proxyfhir.importer;
+
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.storage.ContentCodec;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk-load importer writer for PostgreSQL (synthea.import.mode=copy). Each batch is streamed with
+ * COPY ... FROM STDIN into a session-local staging table and moved into fhir_resource with
+ * INSERT ... ON CONFLICT DO NOTHING, so existing resources are skipped by the unique
+ * (resource_type, resource_id) constraint without a separate lookup and without JPA entities.
+ * last_updated is set to LOCALTIMESTAMP on the way into fhir_resource, as ResourceUpserter does.
+ */
+@Component
+public class CopyResourceBatchWriter implements ResourceBatchWriter {
+
+    private static final String STAGING_TABLE = "fhir_resource_staging";
+    private static final String COLUMNS = "id, resource_type, resource_id, content, content_zip, content_dictionary_id, "
+            + "last_updated, patient_id, codes, effective_at, value_quantity, value_unit, index_version";
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ContentCodec codec;
+
+    public CopyResourceBatchWriter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                   ContentCodec codec) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.codec = codec;
+    }
+
+    /**
+     * COPY is PostgreSQL-specific; other databases (H2 in tests) use {@link JpaResourceBatchWriter}.
+     */
+    public boolean isSupported() {
+        return Boolean.TRUE.equals(jdbcTemplate.execute((Connection c) ->
+                "PostgreSQL".equalsIgnoreCase(c.getMetaData().getDatabaseProductName())));
+    }
+
+    @Override
+    public Map<String, Long> write(List<FhirResource> batch) {
+        if (batch.isEmpty()) return Map.of();
+        return transactionTemplate.execute(status -> jdbcTemplate.execute((Connection c) -> {
+            try (Statement statement = c.createStatement()) {
+                // temp tables are per connection; the pool reuses them, ON COMMIT empties them
+                statement.execute("CREATE TEMP TABLE IF NOT EXISTS " + STAGING_TABLE
+                        + " (LIKE fhir_resource INCLUDING DEFAULTS) ON COMMIT DELETE ROWS");
+            }
+            copyIn(c, batch, reserveIds(c, batch.size()));
+
+            Map<String, Long> inserted = new HashMap<>();
+            try (Statement statement = c.createStatement();
+                 ResultSet rs = statement.executeQuery("WITH inserted AS ("
+                         + "INSERT INTO fhir_resource (" + COLUMNS + ") SELECT "
+                         + COLUMNS.replace("last_updated", "LOCALTIMESTAMP") + " FROM " + STAGING_TABLE
+                         + " ON CONFLICT DO NOTHING RETURNING resource_type) "
+                         + "SELECT resource_type, count(*) FROM inserted GROUP BY resource_type")) {
+                while (rs.next()) {
+                    inserted.put(rs.getString(1), rs.getLong(2));
+                }
+            }
+            return inserted;
+        }));
+    }
+
+    /**
+     * Takes ids from fhir_resource_seq the same way Hibernate's pooled optimizer does: every nextval
+     * reserves the block [value - allocationSize + 1, value], so COPY and JPA inserts never collide.
+     * A new sequence starts at 1, whose block would reach below 1; like the optimizer, only ids from 1
+     * up are used and nextval is called again for the rest.
+     */
+    private Deque<Long> reserveIds(Connection c, int count) throws SQLException {
+        int blockSize = FhirResource.ID_ALLOCATION_SIZE;
+        Deque<Long> ids = new ArrayDeque<>(count);
+        try (PreparedStatement statement = c.prepareStatement(
+                "SELECT nextval('" + FhirResource.ID_SEQUENCE + "') FROM generate_series(1, ?)")) {
+            while (ids.size() < count) {
+                statement.setInt(1, (count - ids.size() + blockSize - 1) / blockSize);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        long high = rs.getLong(1);
+                        for (long id = Math.max(1, high - blockSize + 1); id <= high; id++) {
+                            ids.add(id);
+                        }
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void copyIn(Connection c, List<FhirResource> batch, Deque<Long> ids) throws SQLException {
+        StringBuilder rows = new StringBuilder(batch.size() * 512);
+        for (FhirResource r : batch) {
+            String content = r.getContent();
+            String contentZip = null;
+            Integer dictionaryId = null;
+            if (codec.isEnabled() && content != null) {
+                ContentCodec.Encoded encoded = codec.encode(r.getResourceType(), content);
+                content = null;
+                // bytea in hex input format
+                contentZip = "\\x" + HEX.formatHex(encoded.data());
+                dictionaryId = encoded.dictionaryId();
+            }
+            appendRow(rows, ids.removeFirst(), r.getResourceType(), r.getResourceId(), content, contentZip, dictionaryId,
+                    r.getLastUpdated(), r.getPatientId(), arrayLiteral(r.getCodes()), r.getEffectiveAt(),
+                    r.getValueQuantity(), r.getValueUnit(), r.getIndexVersion());
+        }
+        CopyManager copyManager = c.unwrap(PGConnection.class).getCopyAPI();
+        try {
+            copyManager.copyIn("COPY " + STAGING_TABLE + " (" + COLUMNS + ") FROM STDIN", new StringReader(rows.toString()));
+        } catch (IOException e) {
+            throw new SQLException("COPY into " + STAGING_TABLE + " failed", e);
+        }
+    }
+
+    /**
+     * A PostgreSQL array literal, {"a","b"}, with quotes and backslashes in elements escaped.
+     */
+    private static String arrayLiteral(String[] values) {
+        if (values == null) return null;
+        StringBuilder out = new StringBuilder("{");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) out.append(',');
+            out.append('"').append(values[i].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return out.append('}').toString();
+    }
+
+    /**
+     * One line of COPY text format: tab-separated, \N for null, backslash escapes.
+     */
+    private static void appendRow(StringBuilder out, Object... values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) out.append('\t');
+            if (values[i] == null) {
+                out.append("\\N");
+                continue;
+            }
+            String value = values[i].toString();
+            for (int j = 0; j < value.length(); j++) {
+                char ch = value.charAt(j);
+                switch (ch) {
+                    case '\\' -> out.append("\\\\");
+                    case '\t' -> out.append("\\t");
+                    case '\n' -> out.append("\\n");
+                    case '\r' -> out.append("\\r");
+                    default -> out.append(ch);
+                }
+            }
+        }
+        out.append('\n');
+    }
+}
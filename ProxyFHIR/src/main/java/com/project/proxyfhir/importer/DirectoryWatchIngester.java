@@ -0,0 +1,308 @@
+package com.project.proxyfhir.importer;
+
+import com.project.proxyfhir.service.BulkFileCatalog;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Imports .ndjson and .ndjson.gz files dropped into synthea.import.dir and fhir.hospital.dir while the application
+ * runs (synthea.import.watch.enabled=true). A file is picked up once it is complete: either a
+ * "&lt;file&gt;.done" marker appears next to it, or its size and modification time have not changed
+ * for synthea.import.watch.stable-ms. Complete files go through {@link NdjsonImporter} one round at
+ * a time on a single import thread (so concurrency stays bounded by the importer's pools). When done,
+ * files in a directory served by {@link BulkFileCatalog} stay where they are and their version (size
+ * and modification time) is recorded in {@link ImportCheckpoints}, so they are not imported again;
+ * files elsewhere are moved to imported/. A directory that is missing or stops being watchable (for
+ * example deleted and created again) is registered again on a later poll and rescanned.
+ */
+@Component
+public class DirectoryWatchIngester {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectoryWatchIngester.class);
+    private static final String DONE_SUFFIX = ".done";
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private final NdjsonImporter importer;
+    private final ImportCheckpoints checkpoints;
+    private final BulkFileCatalog catalog;
+
+    @Value("${synthea.import.watch.enabled:false}")
+    private boolean watchEnabled;
+
+    @Value("${synthea.import.watch.stable-ms:5000}")
+    private long stableMs;
+
+    @Value("${synthea.import.dir:}")
+    private String importDir;
+
+    @Value("${fhir.hospital.dir:}")
+    private String hospitalDir;
+
+    @Value("${synthea.import.enabled:false}")
+    private boolean startupImportEnabled;
+
+    // watch thread only
+    private final Map<Path, Candidate> candidates = new HashMap<>();
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    private final Set<Path> unavailable = new HashSet<>();
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private final ExecutorService importExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ndjson-watch-import");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Thread watcher;
+
+    public DirectoryWatchIngester(NdjsonImporter importer, ImportCheckpoints checkpoints, BulkFileCatalog catalog) {
+        this.importer = importer;
+        this.checkpoints = checkpoints;
+        this.catalog = catalog;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!watchEnabled) return;
+        Set<Path> dirs = new LinkedHashSet<>();
+        for (String configured : List.of(importDir, hospitalDir)) {
+            if (configured == null || configured.isBlank()) continue;
+            dirs.add(Paths.get(configured).toAbsolutePath().normalize());
+        }
+        if (dirs.isEmpty()) return;
+        watcher = new Thread(() -> watch(dirs), "ndjson-dir-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Thread running = watcher;
+        if (running != null) running.interrupt();
+        importExecutor.shutdownNow();
+    }
+
+    private void watch(Set<Path> dirs) {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            // files already in synthea.import.dir belong to the startup import
+            Path startupDir = startupImportEnabled && importDir != null && !importDir.isBlank()
+                    ? Paths.get(importDir).toAbsolutePath().normalize() : null;
+            register(watchService, dirs, startupDir);
+            log.info("Directory watch: watching {} for .ndjson files", dirs);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    register(watchService, dirs, null);
+                    WatchKey key = watchService.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    while (key != null) {
+                        Path dir = (Path) key.watchable();
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == OVERFLOW) {
+                                scan(dir);
+                            } else {
+                                noticed(dir.resolve((Path) event.context()));
+                            }
+                        }
+                        if (!key.reset()) {
+                            // registered again (and rescanned) once the directory is back
+                            log.warn("Directory watch: {} is no longer accessible", dir);
+                            watchKeys.remove(dir);
+                        }
+                        key = watchService.poll();
+                    }
+                    submitCompleteFiles();
+                } catch (ClosedWatchServiceException e) {
+                    throw e;
+                } catch (IOException | RuntimeException e) {
+                    // keep watching: the next poll registers and rescans what failed
+                    log.warn("Directory watch: {}", e.toString());
+                    Thread.sleep(POLL_INTERVAL_MS);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Directory watch: cannot create a watch service: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Registers and scans the directories not watched yet, each on its own: one that is missing or
+     * unreadable is tried again on the next call. skipScan is registered without a scan.
+     */
+    private void register(WatchService watchService, Set<Path> dirs, Path skipScan) {
+        for (Path dir : dirs) {
+            WatchKey key = watchKeys.get(dir);
+            if (key != null && key.isValid()) continue;
+            if (!Files.isDirectory(dir)) {
+                if (unavailable.add(dir)) {
+                    log.warn("Directory watch: '{}' does not exist or is not a directory, waiting for it", dir);
+                }
+                continue;
+            }
+            try {
+                key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+                watchKeys.put(dir, key);
+                if (!dir.equals(skipScan)) scan(dir);
+                if (unavailable.remove(dir)) log.info("Directory watch: watching {} again", dir);
+            } catch (IOException e) {
+                if (key != null) key.cancel();
+                watchKeys.remove(dir);
+                if (unavailable.add(dir)) log.warn("Directory watch: cannot watch {}: {}", dir, e.getMessage());
+            }
+        }
+    }
+
+    private void scan(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(this::noticed);
+        }
+    }
+
+    private void noticed(Path path) {
+        String name = path.getFileName().toString();
+        if (name.endsWith(DONE_SUFFIX)) {
+            path = path.resolveSibling(name.substring(0, name.length() - DONE_SUFFIX.length()));
+        }
+        if (!NdjsonFiles.isNdjson(path)) return;
+        if (!inFlight.contains(path)) {
+            candidates.putIfAbsent(path, new Candidate());
+        }
+    }
+
+    private void submitCompleteFiles() {
+        long now = System.currentTimeMillis();
+        List<Path> complete = new ArrayList<>();
+        Iterator<Map.Entry<Path, Candidate>> it = candidates.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Candidate> entry = it.next();
+            Path file = entry.getKey();
+            try {
+                if (!Files.isRegularFile(file)) {
+                    it.remove();
+                } else if (entry.getValue().isComplete(file, now, stableMs)) {
+                    boolean imported = checkpoints.isImported(file);
+                    it.remove();
+                    if (!imported) complete.add(file);
+                }
+            } catch (IOException e) {
+                it.remove();
+                log.debug("Directory watch: cannot read {}: {}", file, e.getMessage());
+            } catch (RuntimeException e) {
+                // checkpoint lookup failed: try again on the next poll
+                log.warn("Directory watch: cannot check import state of {}: {}", file.getFileName(), e.getMessage());
+            }
+        }
+        if (complete.isEmpty()) return;
+        inFlight.addAll(complete);
+        importExecutor.execute(() -> importFiles(complete));
+    }
+
+    private void importFiles(List<Path> files) {
+        log.info("Directory watch: importing {} new file(s)", files.size());
+        Map<Path, FileVersion> versions = new HashMap<>();
+        for (Path file : files) {
+            FileVersion version = FileVersion.of(file);
+            if (version != null) versions.put(file, version);
+        }
+        try {
+            importer.importFiles(files, result -> {
+                if (!result.complete()) {
+                    log.warn("Directory watch: import of {} did not complete ({} resources imported)",
+                            result.file().getFileName(), result.imported());
+                    return;
+                }
+                log.info("Directory watch: imported {} resources from {}", result.imported(), result.file().getFileName());
+                if (isServed(result.file())) {
+                    // a file rewritten during the import is left unmarked and imported again
+                    FileVersion before = versions.get(result.file());
+                    if (before != null && before.equals(FileVersion.of(result.file()))) {
+                        checkpoints.markImported(result.file(), before.size(), before.modified());
+                    }
+                    return;
+                }
+                SyntheaImporterRunner.moveToImported(result.file());
+                Path marker = result.file().resolveSibling(result.file().getFileName() + DONE_SUFFIX);
+                if (Files.exists(marker)) SyntheaImporterRunner.moveToImported(marker);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.removeAll(files);
+        }
+    }
+
+    /**
+     * True for files in a directory whose contents are served by /bulk, which must not be moved.
+     */
+    private boolean isServed(Path file) {
+        Path dir = file.toAbsolutePath().normalize().getParent();
+        for (BulkFileCatalog.Source source : BulkFileCatalog.Source.values()) {
+            if (catalog.directory(source).toAbsolutePath().normalize().equals(dir)) return true;
+        }
+        return false;
+    }
+
+    private record FileVersion(long size, long modified) {
+
+        static FileVersion of(Path file) {
+            try {
+                return new FileVersion(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Size and modification time last seen for a file still being written.
+     */
+    private static final class Candidate {
+        long size = -1;
+        long modified = -1;
+        long unchangedSince;
+
+        boolean isComplete(Path file, long now, long stableMs) throws IOException {
+            if (Files.exists(file.resolveSibling(file.getFileName() + DONE_SUFFIX))) return true;
+            long currentSize = Files.size(file);
+            long currentModified = Files.getLastModifiedTime(file).toMillis();
+            if (currentSize != size || currentModified != modified) {
+                size = currentSize;
+                modified = currentModified;
+                unchangedSince = now;
+                return false;
+            }
+            return now - unchangedSince >= stableMs;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.project.proxyfhir.importer;
+
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.cfg.JsonNodeFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+/**
+ * Mapper for FHIR JSON that is parsed and written back. FHIR decimals carry their precision
+ * ("7.10" is not "7.1"), so they are read as BigDecimal, whose scale tree nodes keep (no trailing zero stripping),
+ * and written without exponent instead of going through double.
+ */
+public final class FhirJson {
+
+    private FhirJson() {
+    }
+
+    public static ObjectMapper newMapper() {
+        return JsonMapper.builder()
+                .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+                .disable(JsonNodeFeature.STRIP_TRAILING_BIGDECIMAL_ZEROES)
+                .enable(StreamWriteFeature.WRITE_BIGDECIMAL_AS_PLAIN)
+                .build();
+    }
+}
@@ -0,0 +1,78 @@
+package com.project.proxyfhir.importer;
+
+import com.project.proxyfhir.model.ImportCheckpoint;
+import com.project.proxyfhir.repository.ImportCheckpointRepository;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+/**
+ * Per-file import checkpoints in the import_checkpoint table, so a restarted import seeks to the
+ * last committed byte offset instead of re-reading the whole file. Files that are imported but not
+ * moved away keep a completed checkpoint for their version.
+ */
+@Component
+public class ImportCheckpoints {
+
+    private final ImportCheckpointRepository repository;
+
+    public ImportCheckpoints(ImportCheckpointRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Returns the checkpoint to resume the file from; a new one at offset 0 when the file has none,
+     * has changed (size or modification time) since it was written, or was already imported in full.
+     */
+    public ImportCheckpoint start(Path file) throws IOException {
+        String key = key(file);
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        return repository.findById(key)
+                // offsets into .gz files count uncompressed bytes and may exceed the file size
+                .filter(c -> c.getCompletedAt() == null && c.getFileSize() == size && c.getFileModified() == modified
+                        && (c.getByteOffset() <= size || NdjsonFiles.isGzip(file)))
+                .orElseGet(() -> new ImportCheckpoint(key, size, modified));
+    }
+
+    /**
+     * True if this version of the file (same path, size and modification time) was imported in full.
+     */
+    public boolean isImported(Path file) throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        return repository.findById(key(file))
+                .filter(c -> c.getCompletedAt() != null && c.getFileSize() == size && c.getFileModified() == modified)
+                .isPresent();
+    }
+
+    /**
+     * Records that the given version of a file left in place was imported in full.
+     */
+    public void markImported(Path file, long size, long modified) {
+        ImportCheckpoint checkpoint = new ImportCheckpoint(key(file), size, modified);
+        checkpoint.setCompletedAt(LocalDateTime.now());
+        save(checkpoint);
+    }
+
+    public void save(ImportCheckpoint checkpoint) {
+        checkpoint.setUpdatedAt(LocalDateTime.now());
+        repository.save(checkpoint);
+    }
+
+    /**
+     * Forgets the checkpoint of a fully imported file.
+     */
+    public void clear(ImportCheckpoint checkpoint) {
+        if (repository.existsById(checkpoint.getFilePath())) {
+            repository.deleteById(checkpoint.getFilePath());
+        }
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+}
@@ -0,0 +1,40 @@
+package com.project.proxyfhir.importer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the Synthea import as the "syntheaImport" health component (and in the readiness group).
+ * The import runs in the background and reads are served meanwhile, so it stays UP unless
+ * synthea.import.gate-readiness=true, which keeps the instance OUT_OF_SERVICE until the import ends.
+ */
+@Component("syntheaImport")
+public class ImportHealthIndicator implements HealthIndicator {
+
+    private final SyntheaImporterRunner runner;
+
+    @Value("${synthea.import.gate-readiness:false}")
+    private boolean gateReadiness;
+
+    public ImportHealthIndicator(SyntheaImporterRunner runner) {
+        this.runner = runner;
+    }
+
+    @Override
+    public Health health() {
+        SyntheaImporterRunner.Status status = runner.status();
+        Health.Builder health = gateReadiness && status.state() == SyntheaImporterRunner.State.RUNNING
+                ? Health.outOfService()
+                : Health.up();
+        health.withDetail("state", status.state())
+                .withDetail("filesTotal", status.filesTotal())
+                .withDetail("filesImported", status.filesImported())
+                .withDetail("filesFailed", status.filesFailed())
+                .withDetail("resourcesImported", status.resourcesImported());
+        if (status.startedAt() != null) health.withDetail("startedAt", status.startedAt().toString());
+        if (status.finishedAt() != null) health.withDetail("finishedAt", status.finishedAt().toString());
+        return health.build();
+    }
+}
@@ -0,0 +1,227 @@
+package com.project.proxyfhir.importer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Import throughput: Micrometer meters (fhir.import.*, per resource type) and the per-file progress
+ * of the current or last import run behind /bulk/import/status. Per-file figures are kept here rather
+ * than as meter tags, since file names would give the meters unbounded cardinality.
+ */
+@Component
+public class ImportMetrics {
+
+    public enum FileState { QUEUED, IMPORTING, COMPLETED, FAILED }
+
+    public record FileStatus(String file, FileState state, long sizeBytes, long bytesRead, long resourcesParsed,
+                             long resourcesWritten, long parseFailures) {}
+
+    /**
+     * Totals of the current (or last) run. Rates are measured from the start of the run and only count
+     * work done in it; etaSeconds is null until bytes have been read.
+     */
+    public record Progress(Instant startedAt, Instant finishedAt, int filesTotal, int filesDone, long bytesTotal,
+                           long bytesRead, long resourcesParsed, long resourcesWritten, long parseFailures,
+                           double percentComplete, double resourcesPerSecond, double bytesPerSecond, Long etaSeconds,
+                           List<FileStatus> files) {}
+
+    private final MeterRegistry registry;
+    private final Counter bytesRead;
+    private final Map<String, Counter> parsedByType = new ConcurrentHashMap<>();
+    private final Map<String, Counter> writtenByType = new ConcurrentHashMap<>();
+    private final Map<String, Counter> parseFailuresByReason = new ConcurrentHashMap<>();
+    private final Map<String, Timer> commitTimers = new ConcurrentHashMap<>();
+
+    private final Map<Path, FileProgress> files = new ConcurrentHashMap<>();
+    // guarded by this
+    private int activeRuns;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+
+    public ImportMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.bytesRead = Counter.builder("fhir.import.bytes.read")
+                .baseUnit("bytes")
+                .description("NDJSON bytes read by the importer")
+                .register(registry);
+        Gauge.builder("fhir.import.files.active", this, m -> m.countFiles(FileState.IMPORTING))
+                .description("Files currently being imported")
+                .register(registry);
+        Gauge.builder("fhir.import.bytes.remaining", this, ImportMetrics::bytesRemaining)
+                .baseUnit("bytes")
+                .description("Bytes left to read in the current import run")
+                .register(registry);
+    }
+
+    /**
+     * Called when an import run starts; a run starting while none is active replaces the file list.
+     */
+    synchronized void runStarted(List<Path> runFiles) {
+        if (activeRuns++ == 0) {
+            files.clear();
+            startedAt = Instant.now();
+            finishedAt = null;
+        }
+        for (Path file : runFiles) {
+            files.put(file, new FileProgress(file));
+        }
+    }
+
+    synchronized void runFinished() {
+        if (--activeRuns == 0) {
+            finishedAt = Instant.now();
+        }
+    }
+
+    FileProgress file(Path file) {
+        return files.computeIfAbsent(file, FileProgress::new);
+    }
+
+    void parsed(FileProgress file, String resourceType) {
+        file.resourcesParsed.incrementAndGet();
+        parsedByType.computeIfAbsent(resourceType, type -> Counter.builder("fhir.import.resources.parsed")
+                .tag("resourceType", type)
+                .description("Resources parsed from NDJSON files")
+                .register(registry)).increment();
+    }
+
+    void parseFailed(FileProgress file, String reason) {
+        file.parseFailures.incrementAndGet();
+        parseFailuresByReason.computeIfAbsent(reason, r -> Counter.builder("fhir.import.parse.failures")
+                .tag("reason", r)
+                .description("NDJSON values that could not be imported")
+                .register(registry)).increment();
+    }
+
+    /**
+     * Records the parser's position in the file; bytes before the resume offset are not counted as read.
+     */
+    void readTo(FileProgress file, long offset) {
+        long previous = file.position.getAndSet(offset);
+        if (offset > previous) {
+            file.bytesReadInRun.addAndGet(offset - previous);
+            bytesRead.increment(offset - previous);
+        }
+    }
+
+    void batchCommitted(FileProgress file, String writer, Map<String, Long> inserted, long nanos) {
+        commitTimer(writer, "success").record(Duration.ofNanos(nanos));
+        inserted.forEach((type, count) -> {
+            file.resourcesWritten.addAndGet(count);
+            writtenByType.computeIfAbsent(type, t -> Counter.builder("fhir.import.resources.written")
+                    .tag("resourceType", t)
+                    .description("Rows inserted by the importer")
+                    .register(registry)).increment(count);
+        });
+    }
+
+    void batchFailed(String writer, long nanos) {
+        commitTimer(writer, "failure").record(Duration.ofNanos(nanos));
+    }
+
+    private Timer commitTimer(String writer, String outcome) {
+        return commitTimers.computeIfAbsent(writer + "/" + outcome, key -> Timer.builder("fhir.import.batch.commit")
+                .tag("writer", writer)
+                .tag("outcome", outcome)
+                .description("Time to write and commit one import batch")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry));
+    }
+
+    public Progress progress() {
+        Instant start = startedAt;
+        Instant end = finishedAt;
+        List<FileStatus> statuses = new ArrayList<>();
+        long bytesTotal = 0, bytesDone = 0, readInRun = 0, parsed = 0, written = 0, failures = 0;
+        int done = 0;
+        for (FileProgress file : files.values()) {
+            FileStatus status = file.status();
+            statuses.add(status);
+            bytesTotal += file.sizeBytes;
+            bytesDone += status.bytesRead();
+            readInRun += file.bytesReadInRun.get();
+            parsed += status.resourcesParsed();
+            written += status.resourcesWritten();
+            failures += status.parseFailures();
+            if (status.state() == FileState.COMPLETED || status.state() == FileState.FAILED) done++;
+        }
+        statuses.sort((a, b) -> a.file().compareTo(b.file()));
+
+        double seconds = start == null ? 0
+                : Duration.between(start, end != null ? end : Instant.now()).toMillis() / 1000.0;
+        double resourcesPerSecond = seconds > 0 ? written / seconds : 0;
+        double bytesPerSecond = seconds > 0 ? readInRun / seconds : 0;
+        Long eta = end != null ? Long.valueOf(0)
+                : bytesPerSecond > 0 ? Long.valueOf(Math.round(bytesRemaining() / bytesPerSecond)) : null;
+        double percent = bytesTotal > 0 ? 100.0 * bytesDone / bytesTotal : (start != null && end != null ? 100 : 0);
+        return new Progress(start, end, statuses.size(), done, bytesTotal, bytesDone, parsed, written, failures,
+                percent, resourcesPerSecond, bytesPerSecond, eta, statuses);
+    }
+
+    private long bytesRemaining() {
+        return files.values().stream().filter(f -> f.state != FileState.FAILED)
+                .mapToLong(f -> f.sizeBytes - f.bytesDone()).sum();
+    }
+
+    private long countFiles(FileState state) {
+        return files.values().stream().filter(f -> f.state == state).count();
+    }
+
+    /**
+     * Progress of one file; updated by its parser thread and the writer threads.
+     */
+    static final class FileProgress {
+        final Path file;
+        final long sizeBytes;
+        final AtomicLong position = new AtomicLong();
+        final AtomicLong bytesReadInRun = new AtomicLong();
+        final AtomicLong resourcesParsed = new AtomicLong();
+        final AtomicLong resourcesWritten = new AtomicLong();
+        final AtomicLong parseFailures = new AtomicLong();
+        volatile FileState state = FileState.QUEUED;
+
+        FileProgress(Path file) {
+            this.file = file;
+            long size;
+            try {
+                size = NdjsonFiles.contentSize(file);
+            } catch (IOException e) {
+                size = 0;
+            }
+            this.sizeBytes = size;
+        }
+
+        void started(long offset) {
+            position.set(offset);
+            state = FileState.IMPORTING;
+        }
+
+        void finished(boolean complete) {
+            // trailing whitespace after the last value is never reported by the parser
+            if (complete) position.accumulateAndGet(sizeBytes, Math::max);
+            state = complete ? FileState.COMPLETED : FileState.FAILED;
+        }
+
+        long bytesDone() {
+            return Math.min(position.get(), sizeBytes);
+        }
+
+        FileStatus status() {
+            return new FileStatus(file.getFileName().toString(), state, sizeBytes, bytesDone(),
+                    resourcesParsed.get(), resourcesWritten.get(), parseFailures.get());
+        }
+    }
+}
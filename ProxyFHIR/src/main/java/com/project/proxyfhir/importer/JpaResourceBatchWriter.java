@@ -0,0 +1,85 @@
+package com.project.proxyfhir.importer;
+
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import com.project.proxyfhir.storage.DatabaseClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Default importer writer: saveAll through JPA, sent as JDBC batches. Works on every database.
+ */
+@Component
+public class JpaResourceBatchWriter implements ResourceBatchWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(JpaResourceBatchWriter.class);
+
+    private final FhirResourceRepository repository;
+    private final DatabaseClock clock;
+
+    public JpaResourceBatchWriter(FhirResourceRepository repository, DatabaseClock clock) {
+        this.repository = repository;
+        this.clock = clock;
+    }
+
+    /**
+     * Another file or writer may insert one of the same resources between the existence check and
+     * the insert; the batch is then retried row by row and the duplicates are skipped.
+     */
+    @Override
+    public Map<String, Long> write(List<FhirResource> resources) {
+        List<FhirResource> batch = withoutExisting(resources);
+        if (batch.isEmpty()) return Map.of();
+        // last_updated on the database clock, like every other writer
+        LocalDateTime now = clock.localNow();
+        batch.forEach(resource -> resource.setLastUpdated(now));
+        List<FhirResource> saved;
+        try {
+            repository.saveAll(batch);
+            saved = batch;
+        } catch (DataIntegrityViolationException e) {
+            saved = new ArrayList<>();
+            for (FhirResource resource : batch) {
+                resource.setId(null);
+                try {
+                    saved.add(repository.save(resource));
+                } catch (DataIntegrityViolationException duplicate) {
+                    log.debug("Skipping existing resource {}/{}", resource.getResourceType(), resource.getResourceId());
+                }
+            }
+        }
+        return saved.stream()
+                .collect(Collectors.groupingBy(FhirResource::getResourceType, Collectors.counting()));
+    }
+
+    /**
+     * Idempotency check for a whole batch: one IN query per resource type instead of one lookup per resource.
+     */
+    private List<FhirResource> withoutExisting(List<FhirResource> resources) {
+        Map<String, Set<String>> idsByType = new HashMap<>();
+        for (FhirResource resource : resources) {
+            if (resource.getResourceId() != null) {
+                idsByType.computeIfAbsent(resource.getResourceType(), type -> new HashSet<>()).add(resource.getResourceId());
+            }
+        }
+        Set<String> existing = new HashSet<>();
+        idsByType.forEach((type, ids) -> repository.findExistingResourceIds(type, ids)
+                .forEach(id -> existing.add(type + "/" + id)));
+        if (existing.isEmpty()) return resources;
+        log.debug("Skipping {} existing resources", existing.size());
+        return resources.stream()
+                .filter(r -> r.getResourceId() == null || !existing.contains(r.getResourceType() + "/" + r.getResourceId()))
+                .toList();
+    }
+}
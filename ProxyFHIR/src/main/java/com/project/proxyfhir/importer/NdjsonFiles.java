@@ -0,0 +1,77 @@
+package com.project.proxyfhir.importer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Naming and opening of NDJSON files, which may be stored gzip-compressed as "&lt;name&gt;.ndjson.gz".
+ */
+public final class NdjsonFiles {
+
+    public static final String NDJSON_SUFFIX = ".ndjson";
+    public static final String GZIP_SUFFIX = ".gz";
+    public static final String LOG_FILE = "log.ndjson";
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private NdjsonFiles() {
+    }
+
+    /**
+     * True for .ndjson and .ndjson.gz files, except hidden files and the Synthea log.
+     */
+    public static boolean isNdjson(Path file) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(".")) return false;
+        String logical = logicalName(name);
+        return logical.toLowerCase().endsWith(NDJSON_SUFFIX) && !logical.equals(LOG_FILE);
+    }
+
+    public static boolean isGzip(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(GZIP_SUFFIX);
+    }
+
+    /**
+     * The uncompressed name: "Patient.000.ndjson" for both Patient.000.ndjson and Patient.000.ndjson.gz.
+     */
+    public static String logicalName(String fileName) {
+        return fileName.toLowerCase().endsWith(GZIP_SUFFIX)
+                ? fileName.substring(0, fileName.length() - GZIP_SUFFIX.length())
+                : fileName;
+    }
+
+    /**
+     * Opens the file for reading its NDJSON content, decompressing .gz files.
+     */
+    public static InputStream openContent(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (!isGzip(file)) return in;
+        try {
+            return new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Size of the NDJSON content. For .gz files this is the size recorded in the gzip trailer
+     * (modulo 2^32 and of the last member only), which is exact for files written by gzip under 4 GiB.
+     */
+    public static long contentSize(Path file) throws IOException {
+        long size = Files.size(file);
+        if (!isGzip(file) || size < 18) return size;
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            raf.seek(size - 4);
+            long isize = 0;
+            for (int i = 0; i < 4; i++) {
+                isize |= (long) raf.read() << (8 * i);
+            }
+            return isize;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.project.proxyfhir.importer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.model.ImportCheckpoint;
+import com.project.proxyfhir.search.SearchParameterExtractor;
+import com.project.proxyfhir.service.ResourceCountService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Imports NDJSON files through a two-stage pipeline: parser threads stream several files at once
+ * and hand batches to a bounded queue, and a small pool of writer threads saves them. When the
+ * writers fall behind the queue fills up and the parsers block, so at most
+ * (queue-capacity + writer-threads) batches are held in memory whatever the number of files.
+ */
+@Component
+public class NdjsonImporter {
+
+    static final int BATCH_SIZE = 1000;
+    static final String MODE_COPY = "copy";
+
+    private static final Logger log = LoggerFactory.getLogger(NdjsonImporter.class);
+
+    private final JpaResourceBatchWriter jpaWriter;
+    private final CopyResourceBatchWriter copyWriter;
+    private final ResourceCountService resourceCounts;
+    private final ImportCheckpoints checkpoints;
+    private final ImportMetrics metrics;
+    private final ObjectMapper objectMapper = FhirJson.newMapper();
+
+    @Value("${synthea.import.mode:jpa}")
+    private String mode;
+
+    @Value("${synthea.import.parallelism:4}")
+    private int parallelism;
+
+    @Value("${synthea.import.writer-threads:2}")
+    private int writerThreads;
+
+    @Value("${synthea.import.queue-capacity:8}")
+    private int queueCapacity;
+
+    public NdjsonImporter(JpaResourceBatchWriter jpaWriter, CopyResourceBatchWriter copyWriter,
+                          ResourceCountService resourceCounts, ImportCheckpoints checkpoints, ImportMetrics metrics) {
+        this.jpaWriter = jpaWriter;
+        this.copyWriter = copyWriter;
+        this.resourceCounts = resourceCounts;
+        this.checkpoints = checkpoints;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Outcome of one file. A file is complete when it was parsed to the end and every batch was written.
+     */
+    public record FileResult(Path file, long imported, boolean complete) {}
+
+    /**
+     * Imports the given files and reports each one to {@code onFileDone} (from a pipeline thread) as soon
+     * as its last batch is written. Returns the total number of resources imported.
+     */
+    public long importFiles(List<Path> files, Consumer<FileResult> onFileDone) throws InterruptedException {
+        if (files.isEmpty()) return 0;
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(Math.max(queueCapacity, 1));
+        AtomicLong total = new AtomicLong();
+        int writerCount = Math.max(writerThreads, 1);
+        ResourceBatchWriter writer = selectWriter();
+        String writerName = writer == copyWriter ? MODE_COPY : "jpa";
+        metrics.runStarted(files);
+
+        ExecutorService writers = Executors.newFixedThreadPool(writerCount, threadFactory("synthea-import-writer-"));
+        for (int i = 0; i < writerCount; i++) {
+            writers.execute(() -> writeLoop(writer, writerName, queue, total));
+        }
+        ExecutorService parsers = Executors.newFixedThreadPool(
+                Math.max(Math.min(parallelism, files.size()), 1), threadFactory("synthea-import-parser-"));
+        try {
+            for (Path file : files) {
+                FileImport fileImport = new FileImport(file, onFileDone);
+                parsers.execute(() -> parseFile(fileImport, queue));
+            }
+            parsers.shutdown();
+            parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } finally {
+            parsers.shutdownNow();
+            try {
+                // one end marker per writer, queued behind the remaining batches
+                for (int i = 0; i < writerCount; i++) {
+                    queue.put(Batch.END);
+                }
+                writers.shutdown();
+                writers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } finally {
+                metrics.runFinished();
+            }
+        }
+        return total.get();
+    }
+
+    private ResourceBatchWriter selectWriter() {
+        if (MODE_COPY.equalsIgnoreCase(mode)) {
+            if (copyWriter.isSupported()) {
+                log.info("Synthea importer: bulk-loading with COPY");
+                return copyWriter;
+            }
+            log.warn("Synthea importer: synthea.import.mode=copy requires PostgreSQL, using JPA inserts");
+        }
+        return jpaWriter;
+    }
+
+    private void parseFile(FileImport fileImport, BlockingQueue<Batch> queue) {
+        Path file = fileImport.file;
+        List<FhirResource> batch = new ArrayList<>();
+        // ids queued in the current batch; (resource_type, resource_id) is unique so a repeated id would fail the whole batch
+        Set<String> batchKeys = new HashSet<>();
+        long offset = 0;
+        try {
+            try {
+                ImportCheckpoint checkpoint = checkpoints.start(file);
+                fileImport.checkpoint = checkpoint;
+                offset = checkpoint.getByteOffset();
+                fileImport.progress.started(offset);
+                if (offset > 0) {
+                    log.info("Resuming file {} at byte {} of {} ({} resources imported before)",
+                            file.getFileName(), offset, checkpoint.getFileSize(), checkpoint.getResourcesImported());
+                } else {
+                    log.info("Importing file {}", file.getFileName());
+                }
+                try (NdjsonResourceReader reader = NdjsonResourceReader.open(objectMapper, file, offset)) {
+                    JsonNode node;
+                    while ((node = reader.next()) != null) {
+                        offset = reader.byteOffset();
+                        if (!node.has("resourceType")) {
+                            metrics.parseFailed(fileImport.progress, "missing-resource-type");
+                            log.debug("Skipping JSON without resourceType in {}", file.getFileName());
+                            continue;
+                        }
+                        String resourceType = node.get("resourceType").asText();
+                        String resourceId = node.has("id") ? node.get("id").asText() : null;
+
+                        // resources already in the database are skipped by the writer
+                        if (resourceId != null && !batchKeys.add(resourceType + "/" + resourceId)) {
+                            log.debug("Skipping duplicate resource {}/{} in {}", resourceType, resourceId, file.getFileName());
+                            continue;
+                        }
+
+                        FhirResource res = new FhirResource(resourceType, resourceId, objectMapper.writeValueAsString(node));
+                        SearchParameterExtractor.apply(res, node);
+                        batch.add(res);
+                        metrics.parsed(fileImport.progress, resourceType);
+
+                        if (batch.size() >= BATCH_SIZE) {
+                            metrics.readTo(fileImport.progress, offset);
+                            fileImport.enqueue(queue, List.copyOf(batch), offset);
+                            batch.clear();
+                            batchKeys.clear();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                fileImport.failed = true;
+                if (Thread.currentThread().isInterrupted()) {
+                    // cancelled: the interrupt closed the file channel
+                    log.info("Stopped reading file {} at byte {}", file.getFileName(), offset);
+                } else {
+                    metrics.parseFailed(fileImport.progress, "malformed-json");
+                    // malformed JSON stops the file: the parser cannot resynchronise reliably after a syntax error
+                    log.error("Failed to read file {}: {}", file, e.getMessage());
+                }
+            }
+            metrics.readTo(fileImport.progress, offset);
+            // also keeps what was parsed before a read error
+            if (!batch.isEmpty()) {
+                fileImport.enqueue(queue, List.copyOf(batch), offset);
+            }
+        } catch (InterruptedException e) {
+            fileImport.failed = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            fileImport.release();
+        }
+    }
+
+    private void writeLoop(ResourceBatchWriter writer, String writerName, BlockingQueue<Batch> queue, AtomicLong total) {
+        while (true) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (batch == Batch.END) return;
+            long started = System.nanoTime();
+            try {
+                Map<String, Long> inserted = writer.write(batch.resources);
+                metrics.batchCommitted(batch.source.progress, writerName, inserted, System.nanoTime() - started);
+                inserted.forEach(resourceCounts::increment);
+                long saved = inserted.values().stream().mapToLong(Long::longValue).sum();
+                batch.source.committed(batch, saved);
+                total.addAndGet(saved);
+            } catch (RuntimeException e) {
+                metrics.batchFailed(writerName, System.nanoTime() - started);
+                batch.source.failed = true;
+                log.error("Failed to save a batch of {} resources from {}: {}",
+                        batch.resources.size(), batch.source.file.getFileName(), e.getMessage());
+            } finally {
+                batch.source.release();
+            }
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private record Batch(FileImport source, long sequence, long endOffset, List<FhirResource> resources) {
+        static final Batch END = new Batch(null, -1, -1, List.of());
+    }
+
+    private record CommittedBatch(long endOffset, long saved) {}
+
+    /**
+     * Tracks the batches of one file still in flight; the parser holds one reference until it reaches
+     * the end of the file, and the last release reports the result.
+     *
+     * Writers commit batches out of order, so the checkpoint only advances over the contiguous run of
+     * committed batches: everything before its offset is stored. Batches committed past a gap are
+     * read again after a restart and skipped as existing resources.
+     */
+    private final class FileImport {
+        final Path file;
+        final Consumer<FileResult> onFileDone;
+        final ImportMetrics.FileProgress progress;
+        final AtomicLong imported = new AtomicLong();
+        final AtomicInteger pending = new AtomicInteger(1);
+        volatile boolean failed;
+        // set by the parser before the first batch is queued
+        ImportCheckpoint checkpoint;
+        // parser thread only
+        long nextSequence;
+        // guarded by this
+        long nextToCheckpoint;
+        final TreeMap<Long, CommittedBatch> committedAhead = new TreeMap<>();
+
+        FileImport(Path file, Consumer<FileResult> onFileDone) {
+            this.file = file;
+            this.onFileDone = onFileDone;
+            this.progress = metrics.file(file);
+        }
+
+        void enqueue(BlockingQueue<Batch> queue, List<FhirResource> resources, long endOffset) throws InterruptedException {
+            pending.incrementAndGet();
+            try {
+                // blocks while the writers are behind (backpressure)
+                queue.put(new Batch(this, nextSequence++, endOffset, resources));
+            } catch (InterruptedException e) {
+                pending.decrementAndGet();
+                throw e;
+            }
+        }
+
+        synchronized void committed(Batch batch, long saved) {
+            imported.addAndGet(saved);
+            committedAhead.put(batch.sequence, new CommittedBatch(batch.endOffset, saved));
+            boolean advanced = false;
+            CommittedBatch next;
+            while ((next = committedAhead.remove(nextToCheckpoint)) != null) {
+                checkpoint.setByteOffset(next.endOffset);
+                checkpoint.setBatches(checkpoint.getBatches() + 1);
+                checkpoint.setResourcesImported(checkpoint.getResourcesImported() + next.saved);
+                nextToCheckpoint++;
+                advanced = true;
+            }
+            if (advanced) {
+                try {
+                    checkpoints.save(checkpoint);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to save import checkpoint for {}: {}", file.getFileName(), e.getMessage());
+                }
+            }
+        }
+
+        void release() {
+            if (pending.decrementAndGet() == 0) {
+                if (!failed && checkpoint != null) {
+                    try {
+                        checkpoints.clear(checkpoint);
+                    } catch (RuntimeException e) {
+                        log.warn("Failed to clear import checkpoint for {}: {}", file.getFileName(), e.getMessage());
+                    }
+                }
+                progress.finished(!failed);
+                onFileDone.accept(new FileResult(file, imported.get(), !failed));
+            }
+        }
+    }
+}
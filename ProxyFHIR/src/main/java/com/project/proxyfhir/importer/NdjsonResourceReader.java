@@ -0,0 +1,89 @@
+package com.project.proxyfhir.importer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams the top-level JSON values of an NDJSON file one at a time. Jackson reads root values
+ * separated by any whitespace, so both line-delimited and pretty-printed concatenated objects are
+ * accepted. Only the current value is held in memory, whatever the size of the file.
+ */
+public class NdjsonResourceReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final JsonParser parser;
+    private final long startOffset;
+
+    public NdjsonResourceReader(ObjectMapper mapper, InputStream in) throws IOException {
+        this(mapper, in, 0L);
+    }
+
+    private NdjsonResourceReader(ObjectMapper mapper, InputStream in, long startOffset) throws IOException {
+        this.parser = mapper.getFactory().createParser(new BufferedInputStream(in, BUFFER_SIZE));
+        this.startOffset = startOffset;
+    }
+
+    public static NdjsonResourceReader open(ObjectMapper mapper, Path file) throws IOException {
+        return open(mapper, file, 0L);
+    }
+
+    /**
+     * Opens the file positioned at a byte offset previously returned by {@link #byteOffset()}.
+     * .ndjson.gz files are decompressed on the fly; their offsets count uncompressed bytes, so
+     * resuming one decompresses and discards everything before the offset instead of seeking.
+     */
+    public static NdjsonResourceReader open(ObjectMapper mapper, Path file, long offset) throws IOException {
+        SeekableByteChannel channel = Files.newByteChannel(file);
+        try {
+            InputStream in;
+            if (NdjsonFiles.isGzip(file)) {
+                in = new GZIPInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+                in.skipNBytes(offset);
+            } else {
+                channel.position(offset);
+                in = Channels.newInputStream(channel);
+            }
+            return new NdjsonResourceReader(mapper, in, offset);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the next top-level value, or null at the end of the input.
+     *
+     * @throws com.fasterxml.jackson.core.JsonParseException on malformed JSON; the rest of the
+     *         input cannot be read reliably after that
+     */
+    public JsonNode next() throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) return null;
+        return parser.readValueAsTree();
+    }
+
+    /**
+     * Byte offset in the file just past the last value returned by {@link #next}.
+     */
+    public long byteOffset() {
+        return startOffset + parser.currentLocation().getByteOffset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,17 @@
+package com.project.proxyfhir.importer;
+
+import com.project.proxyfhir.model.FhirResource;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores one importer batch, skipping resources whose (resourceType, resourceId) is already stored.
+ */
+public interface ResourceBatchWriter {
+
+    /**
+     * Writes the batch in one transaction and returns the number of rows inserted per resource type.
+     */
+    Map<String, Long> write(List<FhirResource> batch);
+}
@@ -1,36 +1,43 @@
 package com.project.proxyfhir.importer;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.project.proxyfhir.model.FhirResource;
-import com.project.proxyfhir.repository.FhirResourceRepository;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.CommandLineRunner;
-import org.springframework.core.Ordered;
-import org.springframework.core.annotation.Order;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Imports the .ndjson and .ndjson.gz files of synthea.import.dir on a background thread once the
+ * application is ready, so the API (and Eureka registration) does not wait for the import. Progress
+ * is exposed through {@link #status()} and the syntheaImport health indicator; {@link #cancel()}
+ * stops the import, which then resumes from its checkpoints on the next run.
+ */
 @Component
-@Order(Ordered.LOWEST_PRECEDENCE)
-public class SyntheaImporterRunner implements CommandLineRunner {
+public class SyntheaImporterRunner {
+
+    public enum State { DISABLED, IDLE, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    public record Status(State state, int filesTotal, int filesImported, int filesFailed, long resourcesImported,
+                         LocalDateTime startedAt, LocalDateTime finishedAt) {}
 
     private static final Logger log = LoggerFactory.getLogger(SyntheaImporterRunner.class);
-    private final FhirResourceRepository repository;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final NdjsonImporter importer;
+    private final ImportCheckpoints checkpoints;
 
     @Value("${synthea.import.dir:}")
     private String importDir;
@@ -38,17 +45,75 @@ public class SyntheaImporterRunner implements CommandLineRunner {
     @Value("${synthea.import.enabled:false}")
     private boolean importEnabled;
 
-    public SyntheaImporterRunner(FhirResourceRepository repository) {
-        this.repository = repository;
+    private volatile State state = State.IDLE;
+    private volatile Thread worker;
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+    private volatile int filesTotal;
+    private final AtomicInteger filesImported = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+    private final AtomicLong resourcesImported = new AtomicLong();
+
+    public SyntheaImporterRunner(NdjsonImporter importer, ImportCheckpoints checkpoints) {
+        this.importer = importer;
+        this.checkpoints = checkpoints;
     }
 
-    @Override
-    public void run(String... args) throws Exception {
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void onApplicationReady() {
         if (!importEnabled) {
             log.info("Synthea importer: disabled by configuration (synthea.import.enabled=false). Skipping.");
+            state = State.DISABLED;
             return;
         }
+        state = State.RUNNING;
+        startedAt = LocalDateTime.now();
+        worker = new Thread(this::runImport, "synthea-import");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public Status status() {
+        return new Status(state, filesTotal, filesImported.get(), filesFailed.get(), resourcesImported.get(),
+                startedAt, finishedAt);
+    }
 
+    /**
+     * Interrupts a running import. Batches already queued are still written; files that did not finish
+     * keep their checkpoints. Returns false if no import is running.
+     */
+    public synchronized boolean cancel() {
+        Thread running = worker;
+        if (state != State.RUNNING || running == null) return false;
+        log.info("Synthea importer: cancelling");
+        running.interrupt();
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cancel();
+    }
+
+    private void runImport() {
+        State outcome = State.FAILED;
+        try {
+            importDirectory();
+            outcome = State.COMPLETED;
+        } catch (InterruptedException e) {
+            outcome = State.CANCELLED;
+            log.info("Synthea importer: cancelled after {} resources; unfinished files resume from their checkpoints",
+                    resourcesImported.get());
+        } catch (Exception e) {
+            log.error("Synthea importer: failed: {}", e.getMessage(), e);
+        } finally {
+            finishedAt = LocalDateTime.now();
+            state = outcome;
+            worker = null;
+        }
+    }
+
+    private void importDirectory() throws IOException, InterruptedException {
         if (importDir == null || importDir.isBlank()) {
             log.info("Synthea importer: no import directory configured (set synthea.import.dir). Skipping.");
             return;
@@ -64,147 +129,53 @@ public class SyntheaImporterRunner implements CommandLineRunner {
 
         List<Path> ndjsonFiles;
         try (Stream<Path> stream = Files.list(dir)) {
-            ndjsonFiles = stream.filter(p -> p.toString().toLowerCase().endsWith(".ndjson"))
+            ndjsonFiles = stream.filter(NdjsonFiles::isNdjson)
                     .collect(Collectors.toList());
         }
+        // files the directory watch imported and left in place (served directories)
+        List<Path> alreadyImported = new ArrayList<>();
+        for (Path file : ndjsonFiles) {
+            if (checkpoints.isImported(file)) alreadyImported.add(file);
+        }
+        if (!alreadyImported.isEmpty()) {
+            log.info("Synthea importer: skipping {} file(s) already imported", alreadyImported.size());
+            ndjsonFiles.removeAll(alreadyImported);
+        }
 
         if (ndjsonFiles.isEmpty()) {
             log.info("Synthea importer: no .ndjson files found in '{}'", importDir);
             return;
         }
-
-        int totalImported = 0;
-        for (Path f : ndjsonFiles) {
-            log.info("Importing file {}", f.getFileName());
-            int imported = importNdjsonFile(f);
-            totalImported += imported;
-            log.info("Imported {} resources from {}", imported, f.getFileName());
-            // after successful import move the file into an imported/ subfolder so we don't re-import on restart
-            try {
-                Path importedDir = dir.resolve("imported");
-                if (!Files.exists(importedDir)) Files.createDirectory(importedDir);
-                Path target = importedDir.resolve(f.getFileName());
-                Files.move(f, target);
-                log.info("Moved imported file {} -> {}", f.getFileName(), target.toString());
-            } catch (IOException e) {
-                log.warn("Failed to move imported file {}: {}", f.getFileName(), e.getMessage());
+        filesTotal = ndjsonFiles.size();
+
+        long totalImported = importer.importFiles(ndjsonFiles, result -> {
+            resourcesImported.addAndGet(result.imported());
+            if (!result.complete()) {
+                filesFailed.incrementAndGet();
+                log.warn("Import of {} did not complete ({} resources imported); leaving it in place for the next run",
+                        result.file().getFileName(), result.imported());
+                return;
             }
-            // brief pause to yield CPU and reduce DB pressure between files
-            try { Thread.sleep(250); } catch (InterruptedException ignored) {}
-        }
+            filesImported.incrementAndGet();
+            log.info("Imported {} resources from {}", result.imported(), result.file().getFileName());
+            moveToImported(result.file());
+        });
 
         log.info("Synthea importer: completed. Total resources imported: {}", totalImported);
     }
 
-    private int importNdjsonFile(Path file) {
-        int count = 0;
-        List<FhirResource> batch = new ArrayList<>();
-        final int BATCH_SIZE = 1000;
-        try {
-            String content = Files.readString(file, StandardCharsets.UTF_8);
-            List<String> jsonObjects = splitJsonObjects(content);
-
-            // Fallback to line-based parsing if no objects found
-            if (jsonObjects.isEmpty()) {
-                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        line = line.trim();
-                        if (line.isEmpty()) continue;
-                        jsonObjects.add(line);
-                    }
-                }
-            }
-
-            for (String obj : jsonObjects) {
-                if (obj == null || obj.isBlank()) continue;
-                try {
-                    JsonNode node = objectMapper.readTree(obj);
-                    if (!node.has("resourceType")) {
-                        log.debug("Skipping JSON without resourceType: {}", obj);
-                        continue;
-                    }
-                    String resourceType = node.get("resourceType").asText();
-                    String resourceId = node.has("id") ? node.get("id").asText() : null;
-
-                    // Idempotency check: skip if already imported
-                    if (resourceId != null) {
-                        Optional<FhirResource> existing = repository.findByResourceTypeAndResourceId(resourceType, resourceId);
-                        if (existing.isPresent()) {
-                            log.debug("Skipping existing resource {}/{}", resourceType, resourceId);
-                            continue;
-                        }
-                    }
-
-                    FhirResource res = new FhirResource(resourceType, resourceId, obj);
-                    batch.add(res);
-                    count++;
-
-                    if (batch.size() >= BATCH_SIZE) {
-                        repository.saveAll(batch);
-                        batch.clear();
-                        // small pause to allow DB to catch up
-                        try { Thread.sleep(50); } catch (InterruptedException ignored) {}
-                    }
-                } catch (IOException e) {
-                    log.warn("Failed to parse JSON object in {}: {}", file.getFileName(), e.getMessage());
-                }
-            }
-
-            if (!batch.isEmpty()) {
-                repository.saveAll(batch);
-            }
-
-        } catch (IOException e) {
-            log.error("Failed to read file {}: {}", file.toString(), e.getMessage());
-        }
-
-        return count;
-    }
-
     /**
-     * Splits a String that may contain one or more JSON objects (possibly pretty-printed / multi-line)
-     * into individual JSON object strings by scanning for balanced braces while being aware of strings
-     * and escape characters.
+     * Moves a fully imported file into the imported/ subfolder of its directory so it is not imported again.
      */
-    private List<String> splitJsonObjects(String s) {
-        List<String> out = new ArrayList<>();
-        if (s == null || s.isBlank()) return out;
-
-        StringBuilder sb = new StringBuilder();
-        boolean inString = false;
-        boolean escape = false;
-        int depth = 0;
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            sb.append(c);
-
-            if (escape) {
-                escape = false;
-                continue;
-            }
-            if (c == '\\') {
-                escape = true;
-                continue;
-            }
-            if (c == '"') {
-                inString = !inString;
-                continue;
-            }
-            if (!inString) {
-                if (c == '{') {
-                    depth++;
-                } else if (c == '}') {
-                    depth--;
-                    if (depth == 0) {
-                        String obj = sb.toString().trim();
-                        if (!obj.isBlank()) out.add(obj);
-                        sb.setLength(0);
-                    }
-                }
-            }
+    static void moveToImported(Path file) {
+        try {
+            Path importedDir = file.getParent().resolve("imported");
+            Files.createDirectories(importedDir);
+            Path target = importedDir.resolve(file.getFileName());
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            log.info("Moved imported file {} -> {}", file.getFileName(), target.toString());
+        } catch (IOException e) {
+            log.warn("Failed to move imported file {}: {}", file.getFileName(), e.getMessage());
         }
-
-        return out;
     }
 }
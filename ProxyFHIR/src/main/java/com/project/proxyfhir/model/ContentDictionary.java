@@ -0,0 +1,65 @@
+package com.project.proxyfhir.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.LocalDateTime;
+
+/**
+ * A preset deflate dictionary trained on stored resources of one type (see ContentCodec). Rows
+ * compressed with it reference its id, so a dictionary is never changed once written; retraining
+ * adds a new one.
+ */
+@Entity
+@Table(name = "content_dictionary")
+public class ContentDictionary {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "resource_type")
+    private String resourceType;
+
+    @Column(name = "dictionary", columnDefinition = "bytea")
+    private byte[] dictionary;
+
+    @Column(name = "sample_count")
+    private int sampleCount;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    public ContentDictionary() {}
+
+    public ContentDictionary(String resourceType, byte[] dictionary, int sampleCount) {
+        this.resourceType = resourceType;
+        this.dictionary = dictionary;
+        this.sampleCount = sampleCount;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+}
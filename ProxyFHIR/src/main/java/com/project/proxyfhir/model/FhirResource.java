@@ -2,22 +2,50 @@ package com.project.proxyfhir.model;
 
 import com.fasterxml.jackson.annotation.JsonRawValue;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.project.proxyfhir.service.ResourceCacheListener;
+import com.project.proxyfhir.storage.ContentCodecListener;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
-import jakarta.persistence.Lob;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import jakarta.persistence.UniqueConstraint;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "fhir_resource")
+@DynamicUpdate
+@EntityListeners({ContentCodecListener.class, ResourceCacheListener.class})
+@Table(name = "fhir_resource", uniqueConstraints = {
+        // Also the index behind every (resource_type, resource_id) point read
+        @UniqueConstraint(name = "uk_fhir_resource_type_resource_id", columnNames = {"resource_type", "resource_id"})
+}, indexes = {
+        @Index(name = "idx_fhir_resource_type_id", columnList = "resource_type, id"),
+        @Index(name = "idx_fhir_resource_type_patient", columnList = "resource_type, patient_id, id"),
+        // codes has a GIN index on PostgreSQL, see CodeSearchIndex
+        @Index(name = "idx_fhir_resource_type_effective", columnList = "resource_type, effective_at"),
+        // Incremental (_since) bulk export: rows of a type changed after a point in time, in keyset order
+        @Index(name = "idx_fhir_resource_type_last_updated", columnList = "resource_type, last_updated, id")
+})
 public class FhirResource {
 
+    public static final String ID_SEQUENCE = "fhir_resource_seq";
+    public static final int ID_ALLOCATION_SIZE = 100;
+
+    // Pooled sequence: Hibernate reserves ID_ALLOCATION_SIZE ids per sequence call, so inserts can be
+    // sent as JDBC batches (IDENTITY forces one round trip per row to read back the generated key)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     @Column(name = "resource_type")
@@ -26,19 +54,54 @@ public class FhirResource {
     @Column(name = "resource_id")
     private String resourceId;
 
-    @Lob
+    // Plain text column (jsonb when fhir.storage.content-format=jsonb, see ContentStorage).
+    // Not @Lob: on PostgreSQL that stores the JSON as a large object and only an oid in the row.
+    // Null when the row is stored compressed.
     @Column(name = "content", columnDefinition = "text")
+    private String contentText;
+
+    // Deflate-compressed content (fhir.storage.content-codec=deflate) and the content_dictionary it
+    // was compressed with (null: none); see ContentCodec
+    @Column(name = "content_zip", columnDefinition = "bytea")
+    private byte[] contentZip;
+
+    @Column(name = "content_dictionary_id")
+    private Integer contentDictionaryId;
+
+    // The JSON, however the row stores it: set on write, decoded on load by ContentCodecListener
+    @Transient
     private String content;
 
     @Column(name = "last_updated")
     private LocalDateTime lastUpdated;
 
+    // Search parameters extracted from content at write time (see SearchParameterExtractor)
+    @Column(name = "patient_id")
+    private String patientId;
+
+    // Every coding of code, as "code" and "system|code" ("|code" without a system); see TokenParam
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "codes")
+    private String[] codes;
+
+    @Column(name = "effective_at")
+    private Instant effectiveAt;
+
+    @Column(name = "value_quantity")
+    private Double valueQuantity;
+
+    @Column(name = "value_unit")
+    private String valueUnit;
+
+    @Column(name = "index_version")
+    private Integer indexVersion;
+
     public FhirResource() {}
 
     public FhirResource(String resourceType, String resourceId, String content) {
         this.resourceType = resourceType;
         this.resourceId = resourceId;
-        this.content = content;
+        setContent(content);
         this.lastUpdated = LocalDateTime.now();
     }
 
@@ -71,8 +134,45 @@ public class FhirResource {
         return content;
     }
 
+    /**
+     * Replaces the content; it is stored as text, or compressed by ContentCodecListener when the row is written.
+     */
     public void setContent(String content) {
         this.content = content;
+        this.contentText = content;
+        this.contentZip = null;
+        this.contentDictionaryId = null;
+    }
+
+    @JsonIgnore
+    public String getContentText() {
+        return contentText;
+    }
+
+    @JsonIgnore
+    public byte[] getContentZip() {
+        return contentZip;
+    }
+
+    @JsonIgnore
+    public Integer getContentDictionaryId() {
+        return contentDictionaryId;
+    }
+
+    /**
+     * Stores the content compressed instead of as text; the JSON returned by getContent() is unchanged.
+     */
+    public void storeCompressed(byte[] contentZip, Integer contentDictionaryId) {
+        this.contentText = null;
+        this.contentZip = contentZip;
+        this.contentDictionaryId = contentDictionaryId;
+    }
+
+    /**
+     * Sets the JSON read from the stored columns, without marking the row as changed.
+     */
+    public void restoreContent(String content) {
+        this.content = content;
     }
 
     public LocalDateTime getLastUpdated() {
@@ -83,9 +183,63 @@ public class FhirResource {
         this.lastUpdated = lastUpdated;
     }
 
+    @JsonIgnore
+    public String getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(String patientId) {
+        this.patientId = patientId;
+    }
+
+    @JsonIgnore
+    public String[] getCodes() {
+        return codes;
+    }
+
+    public void setCodes(String[] codes) {
+        this.codes = codes;
+    }
+
+    @JsonIgnore
+    public Instant getEffectiveAt() {
+        return effectiveAt;
+    }
+
+    public void setEffectiveAt(Instant effectiveAt) {
+        this.effectiveAt = effectiveAt;
+    }
+
+    @JsonIgnore
+    public Double getValueQuantity() {
+        return valueQuantity;
+    }
+
+    public void setValueQuantity(Double valueQuantity) {
+        this.valueQuantity = valueQuantity;
+    }
+
+    @JsonIgnore
+    public String getValueUnit() {
+        return valueUnit;
+    }
+
+    public void setValueUnit(String valueUnit) {
+        this.valueUnit = valueUnit;
+    }
+
+    @JsonIgnore
+    public Integer getIndexVersion() {
+        return indexVersion;
+    }
+
+    public void setIndexVersion(Integer indexVersion) {
+        this.indexVersion = indexVersion;
+    }
+
     // Alias methods for compatibility
     public void setData(String data) {
-        this.content = data;
+        setContent(data);
     }
 
     @JsonIgnore
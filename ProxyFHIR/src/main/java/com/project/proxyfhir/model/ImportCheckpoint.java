@@ -0,0 +1,103 @@
+package com.project.proxyfhir.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progress of an NDJSON file import: every resource before byteOffset has been committed. The file
+ * size and modification time identify the file version the offset belongs to. completedAt is set
+ * for a file that was fully imported but left in place, so the same version is not imported again.
+ */
+@Entity
+@Table(name = "import_checkpoint")
+public class ImportCheckpoint {
+
+    @Id
+    @Column(name = "file_path", length = 1024)
+    private String filePath;
+
+    @Column(name = "file_size")
+    private long fileSize;
+
+    @Column(name = "file_modified")
+    private long fileModified;
+
+    @Column(name = "byte_offset")
+    private long byteOffset;
+
+    @Column(name = "batches")
+    private long batches;
+
+    @Column(name = "resources_imported")
+    private long resourcesImported;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    public ImportCheckpoint() {}
+
+    public ImportCheckpoint(String filePath, long fileSize, long fileModified) {
+        this.filePath = filePath;
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getFileModified() {
+        return fileModified;
+    }
+
+    public long getByteOffset() {
+        return byteOffset;
+    }
+
+    public void setByteOffset(long byteOffset) {
+        this.byteOffset = byteOffset;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public void setBatches(long batches) {
+        this.batches = batches;
+    }
+
+    public long getResourcesImported() {
+        return resourcesImported;
+    }
+
+    public void setResourcesImported(long resourcesImported) {
+        this.resourcesImported = resourcesImported;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(LocalDateTime completedAt) {
+        this.completedAt = completedAt;
+    }
+}
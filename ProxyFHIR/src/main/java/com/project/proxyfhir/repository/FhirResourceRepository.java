@@ -1,14 +1,44 @@
 package com.project.proxyfhir.repository;
 
 import com.project.proxyfhir.model.FhirResource;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface FhirResourceRepository extends JpaRepository<FhirResource, Long> {
+public interface FhirResourceRepository extends JpaRepository<FhirResource, Long>, JpaSpecificationExecutor<FhirResource>,
+        FhirResourceSliceRepository {
     List<FhirResource> findByResourceType(String resourceType);
     Optional<FhirResource> findByResourceTypeAndResourceId(String resourceType, String resourceId);
+
+    // Served by idx_fhir_resource_type_patient
+    List<FhirResource> findByResourceTypeAndPatientId(String resourceType, String patientId);
+
+    // Importer idempotency: which of these ids are already stored, in one probe of uk_fhir_resource_type_resource_id
+    @Query("select r.resourceId from FhirResource r where r.resourceType = :resourceType and r.resourceId in :resourceIds")
+    List<String> findExistingResourceIds(@Param("resourceType") String resourceType,
+                                         @Param("resourceIds") Collection<String> resourceIds);
+
+    // Bundle ingest: the stored rows among a chunk of entries, to be updated in place
+    List<FhirResource> findByResourceTypeAndResourceIdIn(String resourceType, Collection<String> resourceIds);
+
+    long countByResourceTypeAndPatientId(String resourceType, String patientId);
+
+    // Index-only scan on resource_type; used to seed ResourceCountService
+    @Query("select r.resourceType, count(r) from FhirResource r where r.resourceType is not null group by r.resourceType")
+    List<Object[]> countGroupByResourceType();
+
+    // Rows whose extracted search columns are missing or were written by an older extractor version
+    @Query("select r from FhirResource r where r.id > :afterId "
+            + "and (r.indexVersion is null or r.indexVersion < :version) order by r.id")
+    List<FhirResource> findStaleSearchIndex(@Param("afterId") long afterId,
+                                            @Param("version") int version,
+                                            Pageable pageable);
 }
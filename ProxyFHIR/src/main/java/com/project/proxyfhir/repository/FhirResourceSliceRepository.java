@@ -0,0 +1,18 @@
+package com.project.proxyfhir.repository;
+
+import com.project.proxyfhir.model.FhirResource;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * Offset reads without the COUNT(*) that findAll(Specification, Pageable) runs for every page.
+ */
+public interface FhirResourceSliceRepository {
+
+    /**
+     * Up to limit rows matching spec, in sort order, after skipping offset rows.
+     */
+    List<FhirResource> findRange(Specification<FhirResource> spec, Sort sort, int offset, int limit);
+}
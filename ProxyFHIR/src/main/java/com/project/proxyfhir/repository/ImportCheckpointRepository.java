@@ -0,0 +1,9 @@
+package com.project.proxyfhir.repository;
+
+import com.project.proxyfhir.model.ImportCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ImportCheckpointRepository extends JpaRepository<ImportCheckpoint, String> {
+}
@@ -0,0 +1,79 @@
+package com.project.proxyfhir.search;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A FHIR date search value such as "ge2024-01-01". The value is kept as the half-open range
+ * [lower, upper) implied by its precision, so date=2024-03 matches anything in March 2024.
+ */
+public record DateParam(SearchPrefix prefix, Instant lower, Instant upper) {
+
+    /**
+     * @throws IllegalArgumentException if the value is not a FHIR date/dateTime
+     */
+    public static DateParam parse(String value) {
+        // an unescaped '+' in a time zone offset arrives as a space
+        value = value.trim().replace(' ', '+');
+        SearchPrefix prefix = SearchPrefix.of(value);
+        Instant[] range = range(prefix.strip(value));
+        if (range == null) {
+            throw new IllegalArgumentException("Invalid date search value: " + value);
+        }
+        return new DateParam(prefix, range[0], range[1]);
+    }
+
+    /**
+     * Returns the start of a FHIR date/dateTime/instant, or null if it cannot be parsed.
+     * Values without a time zone are taken as UTC.
+     */
+    public static Instant start(String value) {
+        Instant[] range = range(value);
+        return range != null ? range[0] : null;
+    }
+
+    private static Instant[] range(String value) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            switch (value.length()) {
+                case 4 -> {
+                    LocalDate start = LocalDate.of(Integer.parseInt(value), 1, 1);
+                    return new Instant[]{utc(start), utc(start.plusYears(1))};
+                }
+                case 7 -> {
+                    YearMonth month = YearMonth.parse(value);
+                    return new Instant[]{utc(month.atDay(1)), utc(month.plusMonths(1).atDay(1))};
+                }
+                case 10 -> {
+                    LocalDate day = LocalDate.parse(value);
+                    return new Instant[]{utc(day), utc(day.plusDays(1))};
+                }
+                default -> {
+                    Instant instant = hasOffset(value)
+                            ? OffsetDateTime.parse(value).toInstant()
+                            : LocalDateTime.parse(value).toInstant(ZoneOffset.UTC);
+                    // dateTime search values are precise to the second
+                    return new Instant[]{instant, instant.plusSeconds(1)};
+                }
+            }
+        } catch (DateTimeParseException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean hasOffset(String value) {
+        int t = value.indexOf('T');
+        if (t < 0) return false;
+        String time = value.substring(t);
+        return time.endsWith("Z") || time.indexOf('+') >= 0 || time.indexOf('-') >= 0;
+    }
+
+    private static Instant utc(LocalDate date) {
+        return date.atStartOfDay().toInstant(ZoneOffset.UTC);
+    }
+}
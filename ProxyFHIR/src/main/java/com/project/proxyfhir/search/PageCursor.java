@@ -0,0 +1,47 @@
+package com.project.proxyfhir.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque keyset cursor carried in searchset bundle next/previous links.
+ * Encodes the direction and the fhir_resource primary key of the page boundary,
+ * so any page is read with an index range scan on (resource_type, id) instead of an OFFSET.
+ */
+public record PageCursor(boolean forward, long id) {
+
+    public static final PageCursor FIRST = new PageCursor(true, 0L);
+
+    public static PageCursor after(long id) {
+        return new PageCursor(true, id);
+    }
+
+    public static PageCursor before(long id) {
+        return new PageCursor(false, id);
+    }
+
+    public String encode() {
+        String raw = (forward ? "a:" : "b:") + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value was not produced by {@link #encode()}
+     */
+    public static PageCursor decode(String value) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page cursor: " + value);
+        }
+        if (raw.length() < 3 || raw.charAt(1) != ':' || (raw.charAt(0) != 'a' && raw.charAt(0) != 'b')) {
+            throw new IllegalArgumentException("Invalid page cursor: " + value);
+        }
+        try {
+            return new PageCursor(raw.charAt(0) == 'a', Long.parseLong(raw.substring(2)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page cursor: " + value);
+        }
+    }
+}
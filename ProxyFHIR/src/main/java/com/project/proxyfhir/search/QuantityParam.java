@@ -0,0 +1,30 @@
+package com.project.proxyfhir.search;
+
+import java.math.BigDecimal;
+
+/**
+ * A FHIR quantity search value: [prefix]number[|system|code], e.g. "gt9" or "gt9|http://unitsofmeasure.org|%".
+ * The system is accepted but not matched; the unit code, when given, must match valueQuantity.code
+ * (or valueQuantity.unit when the resource has no code).
+ */
+public record QuantityParam(SearchPrefix prefix, BigDecimal value, String unit) {
+
+    /**
+     * @throws IllegalArgumentException if the value is not a FHIR quantity search value
+     */
+    public static QuantityParam parse(String value) {
+        String[] parts = value.trim().split("\\|", -1);
+        if (parts.length != 1 && parts.length != 3) {
+            throw new IllegalArgumentException("Invalid quantity search value: " + value);
+        }
+        SearchPrefix prefix = SearchPrefix.of(parts[0]);
+        BigDecimal number;
+        try {
+            number = new BigDecimal(prefix.strip(parts[0]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid quantity search value: " + value);
+        }
+        String unit = parts.length == 3 && !parts[2].isEmpty() ? parts[2] : null;
+        return new QuantityParam(prefix, number, unit);
+    }
+}
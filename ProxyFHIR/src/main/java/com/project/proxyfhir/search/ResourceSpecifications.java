@@ -0,0 +1,90 @@
+package com.project.proxyfhir.search;
+
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.storage.JsonbFunctionContributor;
+import org.hibernate.query.criteria.HibernateCriteriaBuilder;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Search predicates over the columns extracted by {@link SearchParameterExtractor}. Each one maps to
+ * an indexed column (codes through its GIN index on PostgreSQL) so a combined search (e.g. code +
+ * date range + value) is answered from indexes instead of scanning resource content.
+ */
+public final class ResourceSpecifications {
+
+    private ResourceSpecifications() {}
+
+    public static Specification<FhirResource> resourceType(String resourceType) {
+        return (root, query, cb) -> cb.equal(root.get("resourceType"), resourceType);
+    }
+
+    public static Specification<FhirResource> patient(String patientId) {
+        return (root, query, cb) -> cb.equal(root.get("patientId"), patientId);
+    }
+
+    /**
+     * Keyset bounds of a page: afterId < id < beforeId.
+     */
+    public static Specification<FhirResource> idBetween(long afterId, long beforeId) {
+        return (root, query, cb) -> cb.and(
+                cb.greaterThan(root.get("id"), afterId),
+                cb.lessThan(root.get("id"), beforeId));
+    }
+
+    /**
+     * Matches any coding of code, not only the first (codes @> array[...] on PostgreSQL).
+     */
+    public static Specification<FhirResource> code(TokenParam token) {
+        return (root, query, cb) -> ((HibernateCriteriaBuilder) cb).arrayContains(
+                root.<String[]>get("codes"), token.indexKey());
+    }
+
+    public static Specification<FhirResource> date(DateParam date) {
+        return (root, query, cb) -> {
+            var effective = root.<Instant>get("effectiveAt");
+            return switch (date.prefix()) {
+                case EQ -> cb.and(cb.greaterThanOrEqualTo(effective, date.lower()), cb.lessThan(effective, date.upper()));
+                case NE -> cb.or(cb.lessThan(effective, date.lower()), cb.greaterThanOrEqualTo(effective, date.upper()));
+                case GT -> cb.greaterThanOrEqualTo(effective, date.upper());
+                case GE -> cb.greaterThanOrEqualTo(effective, date.lower());
+                case LT -> cb.lessThan(effective, date.lower());
+                case LE -> cb.lessThan(effective, date.upper());
+            };
+        };
+    }
+
+    /**
+     * eq/ne use the implicit precision of the search value, so value-quantity=9.1 matches [9.05, 9.15).
+     */
+    public static Specification<FhirResource> valueQuantity(QuantityParam quantity) {
+        return (root, query, cb) -> {
+            var value = root.<Double>get("valueQuantity");
+            BigDecimal halfStep = BigDecimal.valueOf(5, Math.max(quantity.value().scale(), 0) + 1);
+            double low = quantity.value().subtract(halfStep).doubleValue();
+            double high = quantity.value().add(halfStep).doubleValue();
+            double exact = quantity.value().doubleValue();
+            var comparison = switch (quantity.prefix()) {
+                case EQ -> cb.and(cb.greaterThanOrEqualTo(value, low), cb.lessThan(value, high));
+                case NE -> cb.or(cb.lessThan(value, low), cb.greaterThanOrEqualTo(value, high));
+                case GT -> cb.greaterThan(value, exact);
+                case GE -> cb.greaterThanOrEqualTo(value, exact);
+                case LT -> cb.lessThan(value, exact);
+                case LE -> cb.lessThanOrEqualTo(value, exact);
+            };
+            return quantity.unit() != null
+                    ? cb.and(comparison, cb.equal(root.get("valueUnit"), quantity.unit()))
+                    : comparison;
+        };
+    }
+
+    /**
+     * jsonb containment on the raw content (GIN index); only valid with fhir.storage.content-format=jsonb.
+     */
+    public static Specification<FhirResource> contentContains(String jsonFragment) {
+        return (root, query, cb) -> cb.isTrue(cb.function(
+                JsonbFunctionContributor.JSONB_CONTAINS, Boolean.class, root.get("contentText"), cb.literal(jsonFragment)));
+    }
+}
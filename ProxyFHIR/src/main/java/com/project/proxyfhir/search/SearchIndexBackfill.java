@@ -0,0 +1,91 @@
+package com.project.proxyfhir.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Fills the extracted search columns (patient reference, ...) of rows that were stored before
+ * those columns existed. Walks fhir_resource in primary-key order in small transactions so it
+ * can run next to normal traffic, and is a no-op once every row is at the current version.
+ */
+@Component
+public class SearchIndexBackfill {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchIndexBackfill.class);
+    private final FhirResourceRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${fhir.search.backfill.enabled:true}")
+    private boolean backfillEnabled;
+
+    @Value("${fhir.search.backfill.batch-size:500}")
+    private int batchSize;
+
+    public SearchIndexBackfill(FhirResourceRepository repository, PlatformTransactionManager transactionManager) {
+        this.repository = repository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!backfillEnabled) {
+            log.info("Search index backfill: disabled by configuration (fhir.search.backfill.enabled=false). Skipping.");
+            return;
+        }
+        Thread worker = new Thread(this::backfill, "search-index-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Re-indexes all stale rows and returns how many were updated.
+     */
+    public long backfill() {
+        long lastId = 0;
+        long updated = 0;
+        while (true) {
+            final long afterId = lastId;
+            List<FhirResource> batch = transactionTemplate.execute(status -> {
+                List<FhirResource> rows = repository.findStaleSearchIndex(
+                        afterId, SearchParameterExtractor.CURRENT_VERSION, PageRequest.of(0, batchSize));
+                for (FhirResource r : rows) {
+                    SearchParameterExtractor.apply(r, parse(r));
+                }
+                return rows;
+            });
+            if (batch == null || batch.isEmpty()) break;
+            updated += batch.size();
+            lastId = batch.get(batch.size() - 1).getId();
+            log.debug("Search index backfill: re-indexed rows up to id {}", lastId);
+        }
+        if (updated > 0) {
+            log.info("Search index backfill: completed. Re-indexed {} resources", updated);
+        }
+        return updated;
+    }
+
+    private JsonNode parse(FhirResource r) {
+        if (r.getContent() == null) return null;
+        try {
+            return objectMapper.readTree(r.getContent());
+        } catch (IOException e) {
+            log.warn("Search index backfill: unparseable content for {}/{}: {}", r.getResourceType(), r.getResourceId(), e.getMessage());
+            return null;
+        }
+    }
+}
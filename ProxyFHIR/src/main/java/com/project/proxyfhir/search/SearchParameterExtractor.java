@@ -0,0 +1,118 @@
+package com.project.proxyfhir.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.project.proxyfhir.model.FhirResource;
+
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Extracts the search parameters stored alongside each FHIR resource so that
+ * searches become indexed column lookups instead of scans over the JSON content.
+ * Every write path (importer, REST endpoints) must call {@link #apply} before saving.
+ */
+public final class SearchParameterExtractor {
+
+    /**
+     * Version of the extraction rules. Bump it whenever a new column is extracted so that
+     * {@link SearchIndexBackfill} re-indexes rows written by an older version.
+     */
+    public static final int CURRENT_VERSION = 3;
+
+    // Elements holding the clinically relevant time of the resource, in order of preference
+    private static final List<String> EFFECTIVE_PATHS = List.of(
+            "/effectiveDateTime", "/effectiveInstant", "/effectivePeriod/start", "/issued");
+
+    // Elements that reference the patient a resource belongs to, in order of preference
+    private static final List<String> PATIENT_REFERENCE_ELEMENTS = List.of("subject", "patient", "beneficiary");
+
+    private static final String PATIENT_PREFIX = "Patient/";
+
+    private SearchParameterExtractor() {}
+
+    /**
+     * Populates the extracted search columns of the given entity from its parsed content.
+     */
+    public static void apply(FhirResource resource, JsonNode node) {
+        resource.setPatientId(null);
+        resource.setCodes(null);
+        resource.setEffectiveAt(null);
+        resource.setValueQuantity(null);
+        resource.setValueUnit(null);
+        resource.setIndexVersion(CURRENT_VERSION);
+        if (node == null) return;
+
+        resource.setPatientId(extractPatientId(node));
+
+        resource.setCodes(extractCodes(node));
+
+        resource.setEffectiveAt(extractEffective(node));
+
+        JsonNode quantity = node.path("valueQuantity");
+        if (quantity.path("value").isNumber()) {
+            resource.setValueQuantity(quantity.get("value").asDouble());
+            JsonNode unit = quantity.path("code").isTextual() ? quantity.get("code") : quantity.path("unit");
+            resource.setValueUnit(unit.isTextual() ? unit.asText() : null);
+        }
+    }
+
+    /**
+     * Every coding of code (e.g. the LOINC and SNOMED codings of an Observation), each as its
+     * system-independent and its system-qualified entry; null when there is none.
+     */
+    static String[] extractCodes(JsonNode node) {
+        Set<String> codes = new LinkedHashSet<>();
+        for (JsonNode coding : node.path("code").path("coding")) {
+            if (!coding.path("code").isTextual()) continue;
+            String code = coding.get("code").asText();
+            String system = coding.path("system").isTextual() ? coding.get("system").asText() : "";
+            codes.add(TokenParam.key(null, code));
+            codes.add(TokenParam.key(system, code));
+        }
+        return codes.isEmpty() ? null : codes.toArray(String[]::new);
+    }
+
+    private static Instant extractEffective(JsonNode node) {
+        for (String path : EFFECTIVE_PATHS) {
+            JsonNode value = node.at(path);
+            if (value.isTextual()) {
+                Instant effective = DateParam.start(value.asText());
+                if (effective != null) return effective;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the id of the patient referenced by the resource, or null if it has no patient reference.
+     */
+    public static String extractPatientId(JsonNode node) {
+        for (String element : PATIENT_REFERENCE_ELEMENTS) {
+            JsonNode reference = node.path(element).path("reference");
+            if (reference.isTextual()) {
+                String patientId = normalizePatientId(reference.asText());
+                if (patientId != null) return patientId;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Accepts "123", "Patient/123", "http://host/fhir/Patient/123" or "Patient/123/_history/2"
+     * and returns "123". Returns null for references to other resource types.
+     */
+    public static String normalizePatientId(String reference) {
+        if (reference == null || reference.isBlank()) return null;
+        int idx = reference.lastIndexOf(PATIENT_PREFIX);
+        if (idx < 0) {
+            // bare id as passed in ?patient=123
+            return reference.contains("/") || reference.contains(":") ? null : reference;
+        }
+        String id = reference.substring(idx + PATIENT_PREFIX.length());
+        int history = id.indexOf('/');
+        if (history >= 0) id = id.substring(0, history);
+        return id.isEmpty() ? null : id;
+    }
+}
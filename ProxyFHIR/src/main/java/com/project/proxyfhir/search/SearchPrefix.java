@@ -0,0 +1,28 @@
+package com.project.proxyfhir.search;
+
+/**
+ * FHIR search comparator prefixes for ordered parameters (date, quantity), e.g. date=ge2024-01-01.
+ */
+public enum SearchPrefix {
+    EQ, NE, GT, LT, GE, LE;
+
+    /**
+     * Returns the prefix at the start of a search value, or EQ when the value has none.
+     */
+    public static SearchPrefix of(String value) {
+        if (value != null && value.length() > 2 && Character.isLetter(value.charAt(0)) && Character.isLetter(value.charAt(1))) {
+            String prefix = value.substring(0, 2).toUpperCase();
+            for (SearchPrefix p : values()) {
+                if (p.name().equals(prefix)) return p;
+            }
+        }
+        return EQ;
+    }
+
+    /**
+     * Strips this prefix from a search value if present.
+     */
+    public String strip(String value) {
+        return value.regionMatches(true, 0, name(), 0, 2) ? value.substring(2) : value;
+    }
+}
@@ -0,0 +1,30 @@
+package com.project.proxyfhir.search;
+
+/**
+ * A FHIR token search value: "code", "system|code" or "|code" (code without a system).
+ */
+public record TokenParam(String system, String code, boolean systemSpecified) {
+
+    public static TokenParam parse(String value) {
+        int bar = value.indexOf('|');
+        if (bar < 0) {
+            return new TokenParam(null, value, false);
+        }
+        String system = value.substring(0, bar);
+        return new TokenParam(system.isEmpty() ? null : system, value.substring(bar + 1), true);
+    }
+
+    /**
+     * The entry of FhirResource.codes this value matches: "code", "system|code" or "|code".
+     */
+    public String indexKey() {
+        return key(systemSpecified ? (system != null ? system : "") : null, code);
+    }
+
+    /**
+     * Index entry of a coding; a null system gives the system-independent "code" entry.
+     */
+    static String key(String system, String code) {
+        return system != null ? system + "|" + code : code;
+    }
+}
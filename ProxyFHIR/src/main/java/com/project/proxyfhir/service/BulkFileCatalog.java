@@ -0,0 +1,326 @@
+package com.project.proxyfhir.service;
+
+import com.project.proxyfhir.importer.NdjsonFiles;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * In-memory index of the NDJSON files served under /bulk (synthea.files.dir and fhir.hospital.dir),
+ * so manifests and per-type lookups do not list the directories on every request. Each file is
+ * listed under its .ndjson name with its stored variants (.ndjson and/or .ndjson.gz), size, line
+ * count, SHA-256 of its content and modification time.
+ *
+ * A watch thread refreshes a directory shortly after it changes; a periodic rescan
+ * (fhir.bulk.catalog.rescan-interval-ms) catches missed events and directories created later.
+ * Listing is cheap and published first; line counts and checksums are computed afterwards, only
+ * for files whose size or modification time changed, so they may briefly be null. Only the listing
+ * holds the lock requests wait on; reading the files does not.
+ */
+@Service
+public class BulkFileCatalog {
+
+    public enum Source { SYNTHEA, HOSPITAL }
+
+    /**
+     * One file. size, lines and sha256 describe the NDJSON content, so both variants of a file share
+     * them; compressedSize is the size of the .gz variant, if any. lines and sha256 are null until the
+     * file has been read.
+     */
+    public record FileEntry(String fileName, String resourceType, Path plain, Path gzip, long size,
+                            Long compressedSize, Instant lastModified, Long lines, String sha256) {
+
+        /**
+         * The stored variant to send: the .gz one to gzip clients, the plain one to others, when both exist.
+         */
+        public Path preferred(boolean preferGzip) {
+            if (plain == null) return gzip;
+            if (gzip == null) return plain;
+            return preferGzip ? gzip : plain;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(BulkFileCatalog.class);
+    private static final long WATCH_DEBOUNCE_MS = 500;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final Map<Source, Path> directories = new HashMap<>();
+    private final Map<Source, Map<String, FileEntry>> snapshots = new ConcurrentHashMap<>();
+    // content statistics by stored file, valid while its size and modification time are unchanged
+    private final Map<Path, ContentStats> statsCache = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> watchKeys = new ConcurrentHashMap<>();
+    // per source: listing and publishing (taken by requests), and a whole refresh (background only)
+    private final Map<Source, Object> listLocks = new EnumMap<>(Source.class);
+    private final Map<Source, Object> refreshLocks = new EnumMap<>(Source.class);
+    private volatile WatchService watchService;
+    private volatile Thread watcher;
+
+    public BulkFileCatalog(@Value("${synthea.files.dir:/synthea-sample/${NUM_PATIENTS:100}-patients}") String filesDir,
+                           @Value("${fhir.hospital.dir:/synthea-sample/FHIR-patients}") String hospitalDir) {
+        directories.put(Source.SYNTHEA, Paths.get(filesDir));
+        directories.put(Source.HOSPITAL, Paths.get(hospitalDir));
+        for (Source source : Source.values()) {
+            listLocks.put(source, new Object());
+            refreshLocks.put(source, new Object());
+        }
+    }
+
+    public Path directory(Source source) {
+        return directories.get(source);
+    }
+
+    /**
+     * All files of the directory, sorted by name; empty when the directory does not exist.
+     */
+    public List<FileEntry> files(Source source) {
+        return List.copyOf(snapshot(source).values());
+    }
+
+    /**
+     * Files of one resource type, i.e. named "&lt;resourceType&gt;.*.ndjson[.gz]", sorted by name.
+     */
+    public List<FileEntry> files(Source source, String resourceType) {
+        List<FileEntry> matches = new ArrayList<>();
+        for (FileEntry entry : snapshot(source).values()) {
+            if (entry.resourceType().equals(resourceType)) matches.add(entry);
+        }
+        return matches;
+    }
+
+    public boolean exists(Source source) {
+        return Files.isDirectory(directories.get(source));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            log.warn("Bulk file catalog: cannot watch directories ({}), relying on the periodic rescan", e.getMessage());
+        }
+        // the first rescan reads every file, so it runs on the watch thread rather than delaying startup
+        watcher = new Thread(this::watch, "bulk-catalog-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        Thread running = watcher;
+        if (running != null) running.interrupt();
+        WatchService service = watchService;
+        if (service != null) service.close();
+    }
+
+    /**
+     * Re-lists both directories and fills in missing statistics; also (re)registers directories
+     * that did not exist when the watcher started.
+     */
+    @Scheduled(fixedDelayString = "${fhir.bulk.catalog.rescan-interval-ms:300000}",
+            initialDelayString = "${fhir.bulk.catalog.rescan-interval-ms:300000}")
+    public void rescan() {
+        for (Source source : Source.values()) {
+            register(source);
+            refresh(source);
+        }
+    }
+
+    private Map<String, FileEntry> snapshot(Source source) {
+        Map<String, FileEntry> snapshot = snapshots.get(source);
+        if (snapshot != null) return snapshot;
+        synchronized (listLocks.get(source)) {
+            snapshot = snapshots.get(source);
+            return snapshot != null ? snapshot : list(source);
+        }
+    }
+
+    /**
+     * Publishes the listing, reads the files without statistics outside the listing lock, then lists
+     * again to publish them (from statsCache, so files changed meanwhile are not given stale figures).
+     */
+    private void refresh(Source source) {
+        synchronized (refreshLocks.get(source)) {
+            Map<String, FileEntry> listed;
+            synchronized (listLocks.get(source)) {
+                listed = list(source);
+            }
+            for (FileEntry entry : listed.values()) {
+                if (Thread.currentThread().isInterrupted()) return;
+                if (entry.lines() == null) computeStats(entry);
+            }
+            Map<String, FileEntry> indexed;
+            synchronized (listLocks.get(source)) {
+                indexed = list(source);
+            }
+            statsCache.keySet().removeIf(p -> !Files.exists(p));
+            log.debug("Bulk file catalog: {} has {} files", directories.get(source), indexed.size());
+        }
+    }
+
+    /**
+     * Lists the directory and publishes the entries, reusing the statistics already known.
+     */
+    private Map<String, FileEntry> list(Source source) {
+        Path dir = directories.get(source);
+        Map<String, List<Path>> variants = new TreeMap<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.{ndjson,ndjson.gz}")) {
+                for (Path p : ds) {
+                    if (!NdjsonFiles.isNdjson(p) || !Files.isRegularFile(p)) continue;
+                    variants.computeIfAbsent(NdjsonFiles.logicalName(p.getFileName().toString()), n -> new ArrayList<>()).add(p);
+                }
+            } catch (IOException e) {
+                log.warn("Bulk file catalog: cannot list {}: {}", dir, e.getMessage());
+            }
+        }
+
+        Map<String, FileEntry> entries = new TreeMap<>();
+        variants.forEach((name, paths) -> {
+            Path plain = null;
+            Path gzip = null;
+            for (Path p : paths) {
+                if (NdjsonFiles.isGzip(p)) gzip = p;
+                else plain = p;
+            }
+            try {
+                Path content = plain != null ? plain : gzip;
+                long size = NdjsonFiles.contentSize(content);
+                Long compressedSize = gzip != null ? Long.valueOf(Files.size(gzip)) : null;
+                Instant modified = Files.getLastModifiedTime(content).toInstant();
+                ContentStats stats = cachedStats(content);
+                entries.put(name, new FileEntry(name, name.split("\\.")[0], plain, gzip, size, compressedSize,
+                        modified, stats != null ? stats.lines : null, stats != null ? stats.sha256 : null));
+            } catch (IOException e) {
+                log.debug("Bulk file catalog: skipping {}: {}", name, e.getMessage());
+            }
+        });
+        Map<String, FileEntry> published = Collections.unmodifiableMap(entries);
+        snapshots.put(source, published);
+        return published;
+    }
+
+    private void computeStats(FileEntry entry) {
+        Path content = entry.plain() != null ? entry.plain() : entry.gzip();
+        try {
+            computeStats(content);
+        } catch (IOException e) {
+            log.debug("Bulk file catalog: cannot read {}: {}", content, e.getMessage());
+        }
+    }
+
+    private ContentStats cachedStats(Path file) throws IOException {
+        ContentStats stats = statsCache.get(file);
+        if (stats == null) return null;
+        boolean current = stats.size == Files.size(file) && stats.modified == Files.getLastModifiedTime(file).toMillis();
+        return current ? stats : null;
+    }
+
+    /**
+     * Counts the NDJSON lines and hashes the content of a file in one pass.
+     */
+    private ContentStats computeStats(Path file) throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long lines = 0;
+        boolean lineHasContent = false;
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream in = NdjsonFiles.openContent(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        if (lineHasContent) lines++;
+                        lineHasContent = false;
+                    } else if (b != '\r' && b != ' ' && b != '\t') {
+                        lineHasContent = true;
+                    }
+                }
+            }
+        }
+        if (lineHasContent) lines++;
+        ContentStats stats = new ContentStats(size, modified, lines, HexFormat.of().formatHex(digest.digest()));
+        statsCache.put(file, stats);
+        return stats;
+    }
+
+    private void register(Source source) {
+        WatchService service = watchService;
+        Path dir = directories.get(source).toAbsolutePath().normalize();
+        if (service == null || !Files.isDirectory(dir)) return;
+        WatchKey existing = watchKeys.get(dir);
+        if (existing != null && existing.isValid()) return;
+        try {
+            watchKeys.put(dir, dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+        } catch (IOException | ClosedWatchServiceException e) {
+            log.debug("Bulk file catalog: cannot watch {}: {}", dir, e.getMessage());
+        }
+    }
+
+    private void watch() {
+        rescan();
+        if (watchService == null) return;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                // let a burst of events (a file being written, a batch of drops) settle into one refresh
+                Thread.sleep(WATCH_DEBOUNCE_MS);
+                Map<Path, Boolean> changed = new HashMap<>();
+                while (key != null) {
+                    key.pollEvents();
+                    changed.put((Path) key.watchable(), Boolean.TRUE);
+                    key.reset();
+                    key = watchService.poll();
+                }
+                for (Source source : Source.values()) {
+                    if (changed.containsKey(directories.get(source).toAbsolutePath().normalize())) {
+                        refresh(source);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record ContentStats(long size, long modified, long lines, String sha256) {}
+}
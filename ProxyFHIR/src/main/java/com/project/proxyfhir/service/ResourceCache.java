@@ -0,0 +1,300 @@
+package com.project.proxyfhir.service;
+
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Bounded in-process cache of point reads by (resourceType, resourceId), in front of
+ * {@link FhirResourceRepository#findByResourceTypeAndResourceId}. Pipelines read the same Patient,
+ * Organization and Practitioner resources over and over; repeated reads are answered from memory.
+ *
+ * The cache is split into segments, each an LRU map bounded by the approximate heap weight of its
+ * entries (fhir.cache.max-weight-bytes overall). When a segment is full, a new entry is only
+ * admitted if it has been read more often recently than the entry it would evict (TinyLFU: read
+ * frequencies are kept in a small, periodically halved count-min sketch), so a scan over many
+ * resources read once does not flush the hot ones.
+ *
+ * Every write path invalidates: JPA updates and deletes through {@link ResourceCacheListener},
+ * native upserts explicitly. Inside a transaction the entry is invalidated again once the
+ * transaction completes, and a read that started before an invalidation never stores its result,
+ * so a concurrent reader cannot put back the version being replaced. Missing resources are not cached.
+ */
+@Service
+public class ResourceCache {
+
+    private static final int SEGMENTS = 16;
+    // approximate heap cost of an entry besides its strings: map node, entry object, boxed id, timestamp
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private record Entry(Long id, String content, LocalDateTime lastUpdated, long weight) {}
+
+    private final FhirResourceRepository repository;
+    private final boolean enabled;
+    private final long maxEntryWeight;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Counter rejections;
+
+    public ResourceCache(FhirResourceRepository repository, MeterRegistry registry,
+                         @Value("${fhir.cache.enabled:true}") boolean enabled,
+                         @Value("${fhir.cache.max-weight-bytes:67108864}") long maxWeight,
+                         @Value("${fhir.cache.max-entry-bytes:1048576}") long maxEntryWeight) {
+        this.repository = repository;
+        this.enabled = enabled && maxWeight > 0;
+        this.maxEntryWeight = Math.min(maxEntryWeight, maxWeight / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxWeight / SEGMENTS);
+        }
+        this.hits = Counter.builder("fhir.cache.gets").tag("result", "hit")
+                .description("Point reads answered from the resource cache")
+                .register(registry);
+        this.misses = Counter.builder("fhir.cache.gets").tag("result", "miss")
+                .description("Point reads that went to the database")
+                .register(registry);
+        this.evictions = Counter.builder("fhir.cache.evictions")
+                .description("Entries evicted to make room for more frequently read ones")
+                .register(registry);
+        this.rejections = Counter.builder("fhir.cache.rejections")
+                .description("Loaded resources not admitted because they were read less often than the eviction candidate")
+                .register(registry);
+        Gauge.builder("fhir.cache.size", this, ResourceCache::size)
+                .description("Resources in the cache")
+                .register(registry);
+        Gauge.builder("fhir.cache.weight", this, ResourceCache::weight)
+                .baseUnit("bytes")
+                .description("Approximate heap used by cached resources")
+                .register(registry);
+    }
+
+    /**
+     * The resource, from the cache or else from the database. The returned entity is never shared
+     * with other callers.
+     */
+    public Optional<FhirResource> find(String resourceType, String resourceId) {
+        if (!enabled || resourceType == null || resourceId == null) {
+            return repository.findByResourceTypeAndResourceId(resourceType, resourceId);
+        }
+        String key = key(resourceType, resourceId);
+        int hash = spread(key.hashCode());
+        Segment segment = segments[hash & (SEGMENTS - 1)];
+        long generation;
+        synchronized (segment) {
+            segment.sketch.increment(hash);
+            Entry entry = segment.entries.get(key);
+            if (entry != null) {
+                hits.increment();
+                return Optional.of(toResource(resourceType, resourceId, entry));
+            }
+            generation = segment.generation;
+        }
+        misses.increment();
+        Optional<FhirResource> loaded = repository.findByResourceTypeAndResourceId(resourceType, resourceId);
+        loaded.ifPresent(r -> segment.put(key, hash, generation, new Entry(r.getId(), r.getContent(),
+                r.getLastUpdated(), weight(key, r.getContent()))));
+        return loaded;
+    }
+
+    /**
+     * Drops the resource, now and, inside a transaction, again when it completes.
+     */
+    public void invalidate(String resourceType, String resourceId) {
+        if (!enabled || resourceType == null || resourceId == null) return;
+        String key = key(resourceType, resourceId);
+        remove(key);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            pendingInvalidations().add(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+                segment.weight = 0;
+                segment.generation++;
+            }
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    private void remove(String key) {
+        Segment segment = segments[spread(key.hashCode()) & (SEGMENTS - 1)];
+        synchronized (segment) {
+            Entry removed = segment.entries.remove(key);
+            if (removed != null) segment.weight -= removed.weight();
+            segment.generation++;
+        }
+    }
+
+    /**
+     * Keys written in the current transaction, invalidated once more after it commits or rolls back.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> pendingInvalidations() {
+        Set<String> keys = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (keys == null) {
+            Set<String> bound = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(this, bound);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ResourceCache.this);
+                    bound.forEach(ResourceCache.this::remove);
+                }
+            });
+            keys = bound;
+        }
+        return keys;
+    }
+
+    private static FhirResource toResource(String resourceType, String resourceId, Entry entry) {
+        FhirResource resource = new FhirResource(resourceType, resourceId, entry.content());
+        resource.setId(entry.id());
+        resource.setLastUpdated(entry.lastUpdated());
+        return resource;
+    }
+
+    private static String key(String resourceType, String resourceId) {
+        return resourceType + "/" + resourceId;
+    }
+
+    private static long weight(String key, String content) {
+        return ENTRY_OVERHEAD + 2L * (key.length() + (content != null ? content.length() : 0));
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return h ^ (h >>> 16);
+    }
+
+    private final class Segment {
+
+        // access order: the first entry is the least recently read
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        final FrequencySketch sketch;
+        final long maxWeight;
+        long weight;
+        // incremented by every invalidation; a load started before one is not stored
+        long generation;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+            // about one counter per 512 bytes of capacity, i.e. several per expected entry
+            this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(64, maxWeight / 512)));
+        }
+
+        synchronized void put(String key, int hash, long loadGeneration, Entry entry) {
+            if (loadGeneration != generation || entry.weight() > maxEntryWeight || entries.containsKey(key)) return;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            boolean admitted = false;
+            while (weight + entry.weight() > maxWeight && eldest.hasNext()) {
+                Map.Entry<String, Entry> victim = eldest.next();
+                if (!admitted && sketch.frequency(hash) <= sketch.frequency(spread(victim.getKey().hashCode()))) {
+                    rejections.increment();
+                    return;
+                }
+                // decided against the least recently read entry; make room for it
+                admitted = true;
+                eldest.remove();
+                weight -= victim.getValue().weight();
+                evictions.increment();
+            }
+            entries.put(key, entry);
+            weight += entry.weight();
+        }
+    }
+
+    /**
+     * Count-min sketch of recent read frequencies: four rows of saturating 4-bit counts (stored in
+     * bytes), all halved once the number of increments reaches ten times the width, so old popularity fades.
+     */
+    private static final class FrequencySketch {
+
+        private static final int[] SEEDS = {0x97cb3127, 0x8f7cbd4b, 0x5bd1e995, 0x27d4eb2f};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] rows = new byte[SEEDS.length][];
+        private final int mask;
+        private final int sampleSize;
+        private int increments;
+
+        FrequencySketch(int width) {
+            int size = Integer.highestOneBit(width);
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = new byte[size];
+            }
+            this.mask = size - 1;
+            this.sampleSize = 10 * size;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < rows.length; i++) {
+                int index = index(hash, i);
+                if (rows[i][index] < MAX_COUNT) {
+                    rows[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++increments >= sampleSize) {
+                for (byte[] row : rows) {
+                    for (int j = 0; j < row.length; j++) {
+                        row[j] >>= 1;
+                    }
+                }
+                increments /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int min = MAX_COUNT;
+            for (int i = 0; i < rows.length; i++) {
+                min = Math.min(min, rows[i][index(hash, i)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 15)) & mask;
+        }
+    }
+}
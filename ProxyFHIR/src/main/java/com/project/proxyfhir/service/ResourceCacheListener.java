@@ -0,0 +1,26 @@
+package com.project.proxyfhir.service;
+
+import com.project.proxyfhir.model.FhirResource;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.context.annotation.Lazy;
+
+/**
+ * Invalidates {@link ResourceCache} entries when a resource is updated or deleted through JPA.
+ * Inserts need nothing: a resource that did not exist cannot be cached.
+ */
+public class ResourceCacheListener {
+
+    private final ResourceCache cache;
+
+    // created by Hibernate while the EntityManagerFactory is built; @Lazy avoids a cycle through the repositories
+    public ResourceCacheListener(@Lazy ResourceCache cache) {
+        this.cache = cache;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void afterWrite(FhirResource resource) {
+        cache.invalidate(resource.getResourceType(), resource.getResourceId());
+    }
+}
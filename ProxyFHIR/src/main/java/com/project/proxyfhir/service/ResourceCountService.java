@@ -0,0 +1,88 @@
+package com.project.proxyfhir.service;
+
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-resource-type row counts kept in memory so /api/stats and searchset totals answer in
+ * constant time. Seeded from a GROUP BY on resource_type (an index-only scan, content is never
+ * read), maintained by every write path through {@link #increment}/{@link #decrement}, and
+ * re-seeded periodically to correct any drift from writes made outside this service.
+ */
+@Service
+public class ResourceCountService {
+
+    private static final Logger log = LoggerFactory.getLogger(ResourceCountService.class);
+    private final FhirResourceRepository repository;
+    private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    public ResourceCountService(FhirResourceRepository repository) {
+        this.repository = repository;
+    }
+
+    public long count(String resourceType) {
+        ensureLoaded();
+        AtomicLong c = counts.get(resourceType);
+        return c != null ? c.get() : 0L;
+    }
+
+    public long total() {
+        ensureLoaded();
+        return counts.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    /**
+     * Resource types with at least one stored row.
+     */
+    public Set<String> resourceTypes() {
+        ensureLoaded();
+        Set<String> types = new TreeSet<>();
+        counts.forEach((type, count) -> {
+            if (count.get() > 0) types.add(type);
+        });
+        return types;
+    }
+
+    public void increment(String resourceType, long delta) {
+        if (resourceType == null || delta == 0) return;
+        counts.computeIfAbsent(resourceType, t -> new AtomicLong()).addAndGet(delta);
+    }
+
+    public void increment(String resourceType) {
+        increment(resourceType, 1);
+    }
+
+    public void decrement(String resourceType) {
+        increment(resourceType, -1);
+    }
+
+    @Scheduled(fixedDelayString = "${fhir.stats.resync-interval-ms:600000}",
+            initialDelayString = "${fhir.stats.resync-interval-ms:600000}")
+    public void resync() {
+        Map<String, Long> fresh = new ConcurrentHashMap<>();
+        for (Object[] row : repository.countGroupByResourceType()) {
+            fresh.put((String) row[0], (Long) row[1]);
+        }
+        counts.keySet().retainAll(fresh.keySet());
+        fresh.forEach((type, count) -> counts.computeIfAbsent(type, t -> new AtomicLong()).set(count));
+        loaded = true;
+        log.debug("Resource counts re-seeded for {} resource types", fresh.size());
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (!loaded) resync();
+        }
+    }
+}
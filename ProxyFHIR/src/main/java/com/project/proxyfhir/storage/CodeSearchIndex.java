@@ -0,0 +1,40 @@
+package com.project.proxyfhir.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+
+/**
+ * Creates the GIN index behind code searches (codes @> array[...]), which JPA index annotations
+ * cannot express, and drops the (resource_type, code, effective_at) index of the first-coding
+ * code column it replaces. PostgreSQL only; on other databases codes is searched without an index.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CodeSearchIndex implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(CodeSearchIndex.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public CodeSearchIndex(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void run(String... args) {
+        Boolean postgres = jdbcTemplate.execute((Connection c) ->
+                "PostgreSQL".equalsIgnoreCase(c.getMetaData().getDatabaseProductName()));
+        if (!Boolean.TRUE.equals(postgres)) return;
+
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_fhir_resource_codes ON fhir_resource USING gin (codes)");
+        jdbcTemplate.execute("DROP INDEX IF EXISTS idx_fhir_resource_type_code_effective");
+        log.debug("Code search index: idx_fhir_resource_codes present");
+    }
+}
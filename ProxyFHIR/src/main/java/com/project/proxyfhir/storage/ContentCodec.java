@@ -0,0 +1,286 @@
+package com.project.proxyfhir.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.project.proxyfhir.model.ContentDictionary;
+import com.project.proxyfhir.repository.ContentDictionaryRepository;
+import com.project.proxyfhir.service.ResourceCountService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compressed storage of fhir_resource.content (fhir.storage.content-codec=deflate).
+ *
+ * Content is stored as raw deflate in content_zip instead of text. FHIR JSON of one type repeats the
+ * same keys, code systems and codings in every row, which a single row is too small to exploit, so
+ * once a type has enough rows a preset dictionary is trained on a sample of them and stored in
+ * content_dictionary; later rows of that type are compressed against it. Each row records the
+ * dictionary it used, so rows stay readable after retraining and whatever the codec setting:
+ * decoding never depends on fhir.storage.content-codec. Existing text rows are compressed when they
+ * are next written.
+ */
+@Component
+public class ContentCodec {
+
+    public static final String CODEC_NONE = "none";
+    public static final String CODEC_DEFLATE = "deflate";
+
+    public record Encoded(byte[] data, Integer dictionaryId) {}
+
+    private static final Logger log = LoggerFactory.getLogger(ContentCodec.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    // deflate only looks back 32 KiB, so a larger dictionary would never be referenced
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+    // longer values (ids, narratives) rarely repeat across resources
+    private static final int MAX_FRAGMENT_LENGTH = 256;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ContentDictionaryRepository dictionaries;
+    private final ResourceCountService resourceCounts;
+    private final int level;
+    private final int dictionarySize;
+    private final int trainingSamples;
+    private final int minTrainingSamples;
+    private volatile boolean enabled;
+
+    private final Map<Integer, byte[]> dictionariesById = new ConcurrentHashMap<>();
+    private final Map<String, Integer> currentDictionary = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    public ContentCodec(JdbcTemplate jdbcTemplate, ContentDictionaryRepository dictionaries,
+                        ResourceCountService resourceCounts,
+                        @Value("${fhir.storage.content-codec:none}") String codec,
+                        @Value("${fhir.storage.content-format:text}") String contentFormat,
+                        @Value("${fhir.storage.codec.level:6}") int level,
+                        @Value("${fhir.storage.codec.dictionary-size:32768}") int dictionarySize,
+                        @Value("${fhir.storage.codec.training-samples:500}") int trainingSamples,
+                        @Value("${fhir.storage.codec.min-training-samples:50}") int minTrainingSamples) {
+        if (!CODEC_NONE.equalsIgnoreCase(codec) && !CODEC_DEFLATE.equalsIgnoreCase(codec)) {
+            throw new IllegalStateException("Unknown fhir.storage.content-codec: " + codec + " (none or deflate)");
+        }
+        this.enabled = CODEC_DEFLATE.equalsIgnoreCase(codec);
+        if (enabled && ContentStorage.FORMAT_JSONB.equalsIgnoreCase(contentFormat)) {
+            throw new IllegalStateException("fhir.storage.content-codec=deflate stores content as bytes and cannot "
+                    + "be combined with fhir.storage.content-format=jsonb");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionaries = dictionaries;
+        this.resourceCounts = resourceCounts;
+        this.level = level;
+        this.dictionarySize = Math.min(dictionarySize, MAX_DICTIONARY_SIZE);
+        this.trainingSamples = trainingSamples;
+        this.minTrainingSamples = minTrainingSamples;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level, true));
+    }
+
+    /**
+     * True when new and rewritten rows are stored compressed.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compresses content with the current dictionary of its resource type, if there is one.
+     */
+    public Encoded encode(String resourceType, String content) {
+        ensureLoaded();
+        Integer dictionaryId = resourceType != null ? currentDictionary.get(resourceType) : null;
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionaryId != null) {
+            deflater.setDictionary(dictionariesById.get(dictionaryId));
+        }
+        byte[] input = content.getBytes(StandardCharsets.UTF_8);
+        deflater.setInput(input);
+        deflater.finish();
+        byte[] buffer = buffers.get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return new Encoded(out.toByteArray(), dictionaryId);
+    }
+
+    /**
+     * @throws IllegalStateException if the data is corrupt or its dictionary does not exist
+     */
+    public String decode(byte[] data, Integer dictionaryId) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        if (dictionaryId != null) {
+            inflater.setDictionary(dictionary(dictionaryId));
+        }
+        inflater.setInput(data);
+        byte[] buffer = buffers.get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Truncated compressed content");
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed content: " + e.getMessage(), e);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The JSON of a row read with plain JDBC (content, content_zip, content_dictionary_id).
+     */
+    public String read(ResultSet rs, int contentColumn) throws SQLException {
+        byte[] zip = rs.getBytes(contentColumn + 1);
+        if (zip == null) return rs.getString(contentColumn);
+        int dictionaryId = rs.getInt(contentColumn + 2);
+        return decode(zip, rs.wasNull() ? null : dictionaryId);
+    }
+
+    /**
+     * Trains a dictionary for every resource type that has enough rows and none yet.
+     */
+    @Scheduled(fixedDelayString = "${fhir.storage.codec.train-interval-ms:600000}",
+            initialDelayString = "${fhir.storage.codec.train-initial-delay-ms:60000}")
+    public void trainMissing() {
+        if (!enabled) return;
+        ensureLoaded();
+        for (String resourceType : resourceCounts.resourceTypes()) {
+            if (!currentDictionary.containsKey(resourceType)
+                    && resourceCounts.count(resourceType) >= minTrainingSamples) {
+                train(resourceType);
+            }
+        }
+    }
+
+    /**
+     * Trains a new dictionary for the type from its most recent rows and makes it the one new rows are
+     * compressed with. Returns its id, or null if the type has too few rows.
+     */
+    public synchronized Integer train(String resourceType) {
+        List<String> samples = new ArrayList<>();
+        jdbcTemplate.query("SELECT content, content_zip, content_dictionary_id FROM fhir_resource "
+                + "WHERE resource_type = ? ORDER BY id DESC LIMIT ?", rs -> {
+            String content = read(rs, 1);
+            if (content != null) samples.add(content);
+        }, resourceType, trainingSamples);
+        if (samples.size() < minTrainingSamples) return null;
+
+        byte[] dictionary = trainDictionary(samples, dictionarySize);
+        ContentDictionary saved = dictionaries.save(new ContentDictionary(resourceType, dictionary, samples.size()));
+        dictionariesById.put(saved.getId(), dictionary);
+        currentDictionary.put(resourceType, saved.getId());
+        log.info("Content codec: trained a {} byte dictionary for {} from {} resources",
+                dictionary.length, resourceType, samples.size());
+        return saved.getId();
+    }
+
+    /**
+     * Builds a preset dictionary from sample documents. Candidate fragments are written as the compact
+     * serializer writes them ("key":, "key":value, "key":{small object}); those found in at least two
+     * samples are ranked by document frequency times length. Deflate encodes matches that are closer
+     * to the data more cheaply, so the best fragments go last.
+     */
+    static byte[] trainDictionary(List<String> samples, int maxSize) {
+        Map<String, Integer> frequency = new HashMap<>();
+        for (String sample : samples) {
+            Set<String> fragments = new HashSet<>();
+            try {
+                collectFragments(mapper.readTree(sample), fragments);
+            } catch (IOException e) {
+                continue;
+            }
+            for (String fragment : fragments) {
+                frequency.merge(fragment, 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : frequency.entrySet()) {
+            if (e.getValue() >= 2) ranked.add(e);
+        }
+        ranked.sort(Comparator.comparingLong((Map.Entry<String, Integer> e) -> (long) e.getValue() * e.getKey().length())
+                .reversed().thenComparing(Map.Entry::getKey));
+
+        List<byte[]> chosen = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> e : ranked) {
+            byte[] bytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > maxSize) continue;
+            chosen.add(bytes);
+            size += bytes.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            out.writeBytes(chosen.get(i));
+        }
+        return out.toByteArray();
+    }
+
+    private static void collectFragments(JsonNode node, Set<String> fragments) {
+        if (node.isArray()) {
+            node.forEach(element -> collectFragments(element, fragments));
+            return;
+        }
+        if (!node.isObject()) return;
+        node.fields().forEachRemaining(field -> {
+            String key = TextNode.valueOf(field.getKey()) + ":";
+            JsonNode value = field.getValue();
+            fragments.add(key);
+            String serialized = value.toString();
+            if (serialized.length() <= MAX_FRAGMENT_LENGTH) {
+                fragments.add(key + serialized);
+            }
+            collectFragments(value, fragments);
+        });
+    }
+
+    private byte[] dictionary(int id) {
+        byte[] dictionary = dictionariesById.get(id);
+        if (dictionary != null) return dictionary;
+        // trained by another instance after this one loaded its dictionaries
+        ContentDictionary stored = dictionaries.findById(id)
+                .orElseThrow(() -> new IllegalStateException("Unknown content dictionary " + id));
+        dictionariesById.put(id, stored.getDictionary());
+        return stored.getDictionary();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            for (ContentDictionary d : dictionaries.findAll()) {
+                dictionariesById.put(d.getId(), d.getDictionary());
+                currentDictionary.merge(d.getResourceType(), d.getId(), Math::max);
+            }
+            loaded = true;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.project.proxyfhir.storage;
+
+import com.project.proxyfhir.model.FhirResource;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import org.springframework.context.annotation.Lazy;
+
+/**
+ * Applies {@link ContentCodec} to FhirResource rows written and read through JPA: content set as text
+ * is compressed before the INSERT/UPDATE when the codec is enabled, and compressed rows are decoded
+ * on load, so callers only ever see getContent().
+ */
+public class ContentCodecListener {
+
+    private final ContentCodec codec;
+
+    // created by Hibernate while the EntityManagerFactory is built; @Lazy avoids a cycle through the repositories
+    public ContentCodecListener(@Lazy ContentCodec codec) {
+        this.codec = codec;
+    }
+
+    @PrePersist
+    @PreUpdate
+    public void beforeWrite(FhirResource resource) {
+        if (!codec.isEnabled() || resource.getContentText() == null) return;
+        ContentCodec.Encoded encoded = codec.encode(resource.getResourceType(), resource.getContentText());
+        resource.storeCompressed(encoded.data(), encoded.dictionaryId());
+    }
+
+    @PostLoad
+    public void afterLoad(FhirResource resource) {
+        resource.restoreContent(resource.getContentZip() != null
+                ? codec.decode(resource.getContentZip(), resource.getContentDictionaryId())
+                : resource.getContentText());
+    }
+}
@@ -0,0 +1,150 @@
+package com.project.proxyfhir.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.util.List;
+
+/**
+ * Owns the physical format of fhir_resource.content.
+ *
+ * In the default "text" format the column is plain text. In "jsonb" format (PostgreSQL only) the
+ * column is converted to jsonb and a GIN index is created, so content containment searches (see
+ * {@link JsonbFunctionContributor}) are answered from it.
+ * Runs before the importer so every write sees the final column type.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ContentStorage implements CommandLineRunner {
+
+    public static final String FORMAT_JSONB = "jsonb";
+
+    private static final Logger log = LoggerFactory.getLogger(ContentStorage.class);
+
+    private static final List<String> JSONB_INDEXES = List.of(
+            // containment (@>) on any path, e.g. code.coding.code or status
+            "CREATE INDEX IF NOT EXISTS idx_fhir_resource_content_gin ON fhir_resource USING gin (content jsonb_path_ops)",
+            // expression indexes created by earlier versions; no query reads them
+            "DROP INDEX IF EXISTS idx_fhir_resource_subject_ref",
+            "DROP INDEX IF EXISTS idx_fhir_resource_status",
+            "DROP INDEX IF EXISTS idx_fhir_resource_effective"
+    );
+
+    private static final String MIGRATIONS_TABLE = "CREATE TABLE IF NOT EXISTS fhir_storage_migration "
+            + "(name varchar(100) PRIMARY KEY, applied_at timestamp NOT NULL DEFAULT LOCALTIMESTAMP)";
+    private static final String LARGE_OBJECT_MIGRATION = "inline-large-object-content";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${fhir.storage.content-format:text}")
+    private String contentFormat;
+
+    private volatile boolean jsonb;
+
+    public ContentStorage(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * True once content is stored as indexed jsonb and the native jsonb queries may be used.
+     */
+    public boolean isJsonb() {
+        return jsonb;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (!isPostgres()) {
+            if (FORMAT_JSONB.equalsIgnoreCase(contentFormat)) {
+                log.warn("Content storage: jsonb format requires PostgreSQL, keeping text storage");
+            }
+            return;
+        }
+
+        String columnType = jdbcTemplate.queryForObject(
+                "SELECT data_type FROM information_schema.columns WHERE table_name = 'fhir_resource' AND column_name = 'content'",
+                String.class);
+        if (!FORMAT_JSONB.equals(columnType)) {
+            migrateLargeObjectContent();
+        }
+
+        if (!FORMAT_JSONB.equalsIgnoreCase(contentFormat)) {
+            if (FORMAT_JSONB.equals(columnType)) {
+                log.warn("Content storage: fhir_resource.content is jsonb but fhir.storage.content-format=text; "
+                        + "jsonb searches stay disabled");
+            }
+            return;
+        }
+        String url = jdbcTemplate.execute((Connection c) -> c.getMetaData().getURL());
+        if (url == null || !url.contains("stringtype=unspecified")) {
+            throw new IllegalStateException("fhir.storage.content-format=jsonb requires 'stringtype=unspecified' "
+                    + "on spring.datasource.url so that text parameters can be written to the jsonb column");
+        }
+
+        if (!FORMAT_JSONB.equals(columnType)) {
+            log.info("Content storage: converting fhir_resource.content from {} to jsonb (rewrites the table)", columnType);
+            jdbcTemplate.execute("ALTER TABLE fhir_resource ALTER COLUMN content TYPE jsonb USING content::jsonb");
+        }
+        for (String ddl : JSONB_INDEXES) {
+            jdbcTemplate.execute(ddl);
+        }
+        jsonb = true;
+        log.info("Content storage: fhir_resource.content stored as jsonb with a GIN index");
+    }
+
+    /**
+     * Older versions mapped content with @Lob, which the PostgreSQL driver stores as a large object
+     * and leaves only its oid in the column. Inline those values so content is real JSON text.
+     * Runs once: success is recorded in fhir_storage_migration, and the table scan is skipped
+     * outright when the database holds no large objects.
+     */
+    private void migrateLargeObjectContent() {
+        jdbcTemplate.execute(MIGRATIONS_TABLE);
+        transactionTemplate.executeWithoutResult(status -> {
+            Boolean applied = jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM fhir_storage_migration WHERE name = ?)", Boolean.class,
+                    LARGE_OBJECT_MIGRATION);
+            if (Boolean.TRUE.equals(applied)) return;
+            Boolean largeObjects = jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM pg_largeobject_metadata)", Boolean.class);
+            if (Boolean.TRUE.equals(largeObjects)) {
+                Integer legacy = jdbcTemplate.queryForObject(
+                        "SELECT count(*) FROM fhir_resource WHERE content ~ '^[0-9]+$'", Integer.class);
+                if (legacy != null && legacy > 0) {
+                    log.info("Content storage: inlining {} large-object content values", legacy);
+                    jdbcTemplate.execute("CREATE TEMP TABLE legacy_content_lob ON COMMIT DROP AS "
+                            + "SELECT id, content::oid AS lob FROM fhir_resource WHERE content ~ '^[0-9]+$'");
+                    jdbcTemplate.execute("UPDATE fhir_resource r SET content = convert_from(lo_get(l.lob), 'UTF8') "
+                            + "FROM legacy_content_lob l WHERE r.id = l.id");
+                    jdbcTemplate.execute("SELECT lo_unlink(lob) FROM legacy_content_lob");
+                }
+            }
+            jdbcTemplate.update("INSERT INTO fhir_storage_migration (name) VALUES (?) ON CONFLICT DO NOTHING",
+                    LARGE_OBJECT_MIGRATION);
+        });
+    }
+
+    private boolean isPostgres() {
+        try {
+            return Boolean.TRUE.equals(jdbcTemplate.execute((Connection c) -> {
+                DatabaseMetaData md = c.getMetaData();
+                return "PostgreSQL".equalsIgnoreCase(md.getDatabaseProductName());
+            }));
+        } catch (RuntimeException e) {
+            log.warn("Content storage: could not determine database type: {}", e.getMessage());
+            return false;
+        }
+    }
+}
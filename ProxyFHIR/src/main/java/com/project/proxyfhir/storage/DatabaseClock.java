@@ -0,0 +1,45 @@
+package com.project.proxyfhir.storage;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * The database clock that stamps fhir_resource.last_updated. The column holds local date-times in
+ * the database session's time zone (LOCALTIMESTAMP, the start of the writing transaction), so every
+ * writer takes its timestamp here and instants are converted by the database, not by the JVM zone.
+ */
+@Component
+public class DatabaseClock {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DatabaseClock(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * LOCALTIMESTAMP: the value ResourceUpserter writes, for writers that stamp rows themselves.
+     * Inside a transaction this is its start time on PostgreSQL.
+     */
+    public LocalDateTime localNow() {
+        return jdbcTemplate.queryForObject("SELECT LOCALTIMESTAMP", (rs, n) -> rs.getObject(1, LocalDateTime.class));
+    }
+
+    public Instant now() {
+        return jdbcTemplate.queryForObject("SELECT CURRENT_TIMESTAMP",
+                (rs, n) -> rs.getObject(1, OffsetDateTime.class)).toInstant();
+    }
+
+    /**
+     * The instant as a last_updated value, i.e. in the database session's time zone.
+     */
+    public LocalDateTime toLocal(Instant instant) {
+        return jdbcTemplate.queryForObject("SELECT CAST(? AS TIMESTAMP)",
+                (rs, n) -> rs.getObject(1, LocalDateTime.class), instant.atOffset(ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,23 @@
+package com.project.proxyfhir.storage;
+
+import org.hibernate.boot.model.FunctionContributions;
+import org.hibernate.boot.model.FunctionContributor;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * Makes the PostgreSQL jsonb containment operator available to JPQL/Criteria queries as
+ * jsonb_contains(content, '{"status":"final"}'), rendered as "content @> cast(... as jsonb)" so the
+ * GIN index on content is used. Registered through META-INF/services.
+ */
+public class JsonbFunctionContributor implements FunctionContributor {
+
+    public static final String JSONB_CONTAINS = "jsonb_contains";
+
+    @Override
+    public void contributeFunctions(FunctionContributions functionContributions) {
+        functionContributions.getFunctionRegistry().registerPattern(
+                JSONB_CONTAINS,
+                "(?1 @> cast(?2 as jsonb))",
+                functionContributions.getTypeConfiguration().getBasicTypeRegistry().resolve(StandardBasicTypes.BOOLEAN));
+    }
+}
@@ -0,0 +1,46 @@
+package com.project.proxyfhir.storage;
+
+import com.project.proxyfhir.model.FhirResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+
+/**
+ * Moves fhir_resource_seq past the ids already in the table. Databases created while ids were
+ * IDENTITY-generated get a fresh sequence starting at 1 from ddl-auto=update, which would collide
+ * with the existing rows. Runs before the importer (PostgreSQL only).
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ResourceIdSequence implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(ResourceIdSequence.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ResourceIdSequence(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void run(String... args) {
+        Boolean postgres = jdbcTemplate.execute((Connection c) ->
+                "PostgreSQL".equalsIgnoreCase(c.getMetaData().getDatabaseProductName()));
+        if (!Boolean.TRUE.equals(postgres)) return;
+
+        Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM fhir_resource", Long.class);
+        Long lastValue = jdbcTemplate.queryForObject("SELECT last_value FROM " + FhirResource.ID_SEQUENCE, Long.class);
+        if (maxId == null || lastValue == null || lastValue > maxId) return;
+
+        // the pooled optimizer hands out [value - allocationSize + 1, value] for each nextval
+        long restart = maxId + FhirResource.ID_ALLOCATION_SIZE;
+        log.info("Resource id sequence: restarting {} at {} (max existing id {})", FhirResource.ID_SEQUENCE, restart, maxId);
+        jdbcTemplate.execute("ALTER SEQUENCE " + FhirResource.ID_SEQUENCE + " RESTART WITH " + restart);
+    }
+}
@@ -0,0 +1,146 @@
+package com.project.proxyfhir.storage;
+
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.service.ResourceCache;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+
+/**
+ * Creates or replaces one resource by (resource_type, resource_id) in a single statement, without
+ * reading it first: on PostgreSQL INSERT ... ON CONFLICT (resource_type, resource_id) DO UPDATE,
+ * so concurrent writers of the same id serialize on the unique constraint and never produce two
+ * rows. last_updated is set by the database. Other databases (H2 in tests) update, insert if
+ * nothing was updated, and update again if a concurrent insert won the unique constraint.
+ *
+ * Writes bypass JPA, so content is compressed and the cached copy invalidated here.
+ */
+@Component
+public class ResourceUpserter {
+
+    public record Result(long id, boolean created, LocalDateTime lastUpdated) {}
+
+    private static final String COLUMNS = "content, content_zip, content_dictionary_id, "
+            + "patient_id, codes, effective_at, value_quantity, value_unit, index_version";
+
+    // EXCLUDED is the row proposed for insertion; xmax = 0 only for a row this statement inserted.
+    // The cast types a null codes parameter.
+    private static final String POSTGRES_UPSERT = "INSERT INTO fhir_resource (" + COLUMNS
+            + ", resource_type, resource_id, id, last_updated) "
+            + "VALUES (?, ?, ?, ?, CAST(? AS varchar[]), ?, ?, ?, ?, ?, ?, nextval('" + FhirResource.ID_SEQUENCE + "'), LOCALTIMESTAMP) "
+            + "ON CONFLICT (resource_type, resource_id) DO UPDATE SET content = EXCLUDED.content, "
+            + "content_zip = EXCLUDED.content_zip, content_dictionary_id = EXCLUDED.content_dictionary_id, "
+            + "patient_id = EXCLUDED.patient_id, codes = EXCLUDED.codes, "
+            + "effective_at = EXCLUDED.effective_at, value_quantity = EXCLUDED.value_quantity, "
+            + "value_unit = EXCLUDED.value_unit, index_version = EXCLUDED.index_version, "
+            + "last_updated = EXCLUDED.last_updated "
+            + "RETURNING id, (xmax = 0), last_updated";
+
+    private static final String UPDATE = "UPDATE fhir_resource SET content = ?, content_zip = ?, "
+            + "content_dictionary_id = ?, patient_id = ?, codes = ?, effective_at = ?, "
+            + "value_quantity = ?, value_unit = ?, index_version = ?, last_updated = LOCALTIMESTAMP "
+            + "WHERE resource_type = ? AND resource_id = ?";
+
+    private static final String INSERT = "INSERT INTO fhir_resource (" + COLUMNS
+            + ", resource_type, resource_id, id, last_updated) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, NEXT VALUE FOR " + FhirResource.ID_SEQUENCE + ", LOCALTIMESTAMP)";
+
+    private static final String SELECT = "SELECT id, last_updated FROM fhir_resource WHERE resource_type = ? AND resource_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ContentCodec codec;
+    private final ResourceCache cache;
+    private volatile Boolean postgres;
+
+    public ResourceUpserter(JdbcTemplate jdbcTemplate, ContentCodec codec, ResourceCache cache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.codec = codec;
+        this.cache = cache;
+    }
+
+    /**
+     * Stores the resource's content and extracted search columns; its resourceId must be set.
+     * The entity itself is not modified.
+     */
+    public Result upsert(FhirResource resource) {
+        if (resource.getResourceType() == null || resource.getResourceId() == null) {
+            throw new IllegalArgumentException("resourceType and resourceId are required");
+        }
+        try {
+            return write(resource);
+        } finally {
+            cache.invalidate(resource.getResourceType(), resource.getResourceId());
+        }
+    }
+
+    private Result write(FhirResource resource) {
+        Object[] values = values(resource);
+        if (isPostgres()) {
+            return jdbcTemplate.queryForObject(POSTGRES_UPSERT, (rs, n) -> new Result(rs.getLong(1),
+                    rs.getBoolean(2), rs.getTimestamp(3).toLocalDateTime()), values);
+        }
+        for (int attempt = 0; ; attempt++) {
+            if (jdbcTemplate.update(UPDATE, values) > 0) {
+                return select(resource, false);
+            }
+            try {
+                jdbcTemplate.update(INSERT, values);
+                return select(resource, true);
+            } catch (DuplicateKeyException e) {
+                // inserted concurrently since the update: update that row instead
+                if (attempt > 0) throw e;
+            }
+        }
+    }
+
+    private Result select(FhirResource resource, boolean created) {
+        return jdbcTemplate.queryForObject(SELECT, (rs, n) -> new Result(rs.getLong(1), created,
+                rs.getTimestamp(2).toLocalDateTime()), resource.getResourceType(), resource.getResourceId());
+    }
+
+    /**
+     * Parameters in COLUMNS order, then resource_type and resource_id. Nullable non-text values are
+     * typed, since PostgreSQL rejects an untyped null for bytea.
+     */
+    private Object[] values(FhirResource resource) {
+        String content = resource.getContent();
+        byte[] contentZip = null;
+        Integer dictionaryId = null;
+        if (codec.isEnabled() && content != null) {
+            ContentCodec.Encoded encoded = codec.encode(resource.getResourceType(), content);
+            content = null;
+            contentZip = encoded.data();
+            dictionaryId = encoded.dictionaryId();
+        }
+        return new Object[]{
+                content,
+                new SqlParameterValue(Types.BINARY, contentZip),
+                new SqlParameterValue(Types.INTEGER, dictionaryId),
+                resource.getPatientId(),
+                resource.getCodes(),
+                new SqlParameterValue(Types.TIMESTAMP,
+                        resource.getEffectiveAt() != null ? Timestamp.from(resource.getEffectiveAt()) : null),
+                new SqlParameterValue(Types.DOUBLE, resource.getValueQuantity()),
+                resource.getValueUnit(),
+                new SqlParameterValue(Types.INTEGER, resource.getIndexVersion()),
+                resource.getResourceType(),
+                resource.getResourceId()
+        };
+    }
+
+    private boolean isPostgres() {
+        Boolean result = postgres;
+        if (result == null) {
+            result = Boolean.TRUE.equals(jdbcTemplate.execute((Connection c) ->
+                    "PostgreSQL".equalsIgnoreCase(c.getMetaData().getDatabaseProductName())));
+            postgres = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,56 @@
+package com.project.proxyfhir;
+
+import com.project.proxyfhir.search.SearchParameterExtractor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bulk-inserts synthetic Observations for the benchmark tests, bypassing JPA so large tables load quickly.
+ */
+public final class BenchmarkData {
+
+    public static final int OBSERVATIONS_PER_PATIENT = 50;
+    private static final int BATCH_SIZE = 5000;
+
+    private BenchmarkData() {}
+
+    /**
+     * Table sizes to benchmark, from -Dbenchmark.sizes (comma separated).
+     */
+    public static long[] sizes(String defaults) {
+        return Arrays.stream(System.getProperty("benchmark.sizes", defaults).split(","))
+                .mapToLong(s -> Long.parseLong(s.trim()))
+                .toArray();
+    }
+
+    /**
+     * Inserts Observations o-{from} .. o-{to - 1} with ids from + 1 .. to; Observation o-i belongs to patient p-{i / 50}.
+     */
+    public static void insertObservations(JdbcTemplate jdbcTemplate, long from, long to) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> batch = new ArrayList<>();
+        for (long i = from; i < to; i++) {
+            String patientId = "p-" + (i / OBSERVATIONS_PER_PATIENT);
+            String content = "{\"resourceType\":\"Observation\",\"id\":\"o-" + i
+                    + "\",\"subject\":{\"reference\":\"Patient/" + patientId + "\"}}";
+            batch.add(new Object[]{i + 1, "Observation", "o-" + i, content, patientId, SearchParameterExtractor.CURRENT_VERSION, now});
+            if (batch.size() == BATCH_SIZE) {
+                flush(jdbcTemplate, batch);
+            }
+        }
+        flush(jdbcTemplate, batch);
+    }
+
+    private static void flush(JdbcTemplate jdbcTemplate, List<Object[]> batch) {
+        if (batch.isEmpty()) return;
+        jdbcTemplate.batchUpdate("insert into fhir_resource "
+                + "(id, resource_type, resource_id, content, patient_id, index_version, last_updated) "
+                + "values (?, ?, ?, ?, ?, ?, ?)", batch);
+        batch.clear();
+    }
+}
@@ -0,0 +1,101 @@
+package com.project.proxyfhir.controller;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares GET /bulk/files/{name} served with sendfile against the streamed copy through the JVM
+ * (fhir.bulk.sendfile=false) over a real Tomcat connector, in MB/s and process CPU time (the
+ * in-process client's share is the same for both).
+ * Run with: mvn test -Dtest=BulkFileServingBenchmarkTest -Dbenchmark=true [-Dbenchmark.mb=2048]
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class BulkFileServingBenchmarkTest {
+
+    private static final String FILE_NAME = "Observation.000.ndjson";
+    private static final int ROUNDS = 5;
+
+    private static Path dir;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private FhirExportController controller;
+
+    @DynamicPropertySource
+    static void filesDir(DynamicPropertyRegistry registry) throws IOException {
+        dir = Files.createTempDirectory("bulk-benchmark");
+        long bytes = Long.getLong("benchmark.mb", 512L) << 20;
+        byte[] line = "{\"resourceType\":\"Observation\",\"id\":\"o\",\"status\":\"final\"}\n".getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = Files.newOutputStream(dir.resolve(FILE_NAME))) {
+            for (long written = 0; written < bytes; written += line.length) {
+                out.write(line);
+            }
+        }
+        registry.add("synthea.files.dir", dir::toString);
+    }
+
+    @AfterAll
+    static void deleteFile() throws IOException {
+        Files.deleteIfExists(dir.resolve(FILE_NAME));
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    void sendfileVersusStreamedCopy() throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/bulk/files/" + FILE_NAME)).build();
+        long size = Files.size(dir.resolve(FILE_NAME));
+        byte[] buffer = new byte[256 * 1024];
+
+        // each mode twice, the first pass warms up the JIT and the page cache
+        for (boolean sendfile : new boolean[] {false, true, false, true}) {
+            ReflectionTestUtils.setField(controller, "sendfileEnabled", sendfile);
+            long cpuStart = processCpuNanos();
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                assertEquals(200, response.statusCode());
+                long received = 0;
+                try (InputStream in = response.body()) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) received += n;
+                }
+                assertEquals(size, received);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double cpuSeconds = (processCpuNanos() - cpuStart) / 1e9;
+            System.out.printf("%s: %d x %,d MB in %.2f s = %.0f MB/s, process CPU %.2f s%n",
+                    sendfile ? "sendfile" : "streamed copy", ROUNDS, size >> 20, seconds,
+                    ROUNDS * (size >> 20) / seconds, cpuSeconds);
+        }
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+}
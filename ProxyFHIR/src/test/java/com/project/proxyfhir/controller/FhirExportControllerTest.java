@@ -0,0 +1,218 @@
+package com.project.proxyfhir.controller;
+
+import com.project.proxyfhir.service.BulkFileCatalog;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class FhirExportControllerTest {
+
+    private static final String FILE_NAME = "Observation.000.ndjson";
+    private static final String CONTENT = """
+            {"resourceType":"Observation","id":"o1","status":"final"}
+            {"resourceType":"Observation","id":"o2","status":"final"}
+            """;
+    private static final Instant MODIFIED = Instant.parse("2024-05-01T10:00:00Z");
+
+    private static Path dir;
+    private static Path hospitalDir;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private BulkFileCatalog catalog;
+
+    @DynamicPropertySource
+    static void filesDir(DynamicPropertyRegistry registry) throws IOException {
+        dir = Files.createTempDirectory("bulk-export-test");
+        hospitalDir = Files.createTempDirectory("bulk-export-test-hospital");
+        registry.add("synthea.files.dir", dir::toString);
+        registry.add("fhir.hospital.dir", hospitalDir::toString);
+    }
+
+    @AfterAll
+    static void deleteFile() throws IOException {
+        for (Path d : new Path[]{dir, hospitalDir}) {
+            Files.deleteIfExists(d.resolve(FILE_NAME));
+            Files.deleteIfExists(d);
+        }
+    }
+
+    @BeforeEach
+    void writeFile() throws IOException {
+        for (Path d : new Path[]{dir, hospitalDir}) {
+            Path file = d.resolve(FILE_NAME);
+            Files.writeString(file, CONTENT, StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(file, FileTime.from(MODIFIED));
+        }
+        catalog.rescan();
+    }
+
+    @Test
+    void storedFileHasStrongEtagAndAnswersIfNoneMatch() throws Exception {
+        MvcResult full = perform(get("/bulk/files/" + FILE_NAME));
+        assertEquals(200, full.getResponse().getStatus());
+        assertEquals(CONTENT, full.getResponse().getContentAsString());
+        assertEquals("bytes", full.getResponse().getHeader(HttpHeaders.ACCEPT_RANGES));
+        String etag = full.getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\""), etag);
+
+        MvcResult notModified = perform(get("/bulk/files/" + FILE_NAME).header(HttpHeaders.IF_NONE_MATCH, etag));
+        assertEquals(304, notModified.getResponse().getStatus());
+        assertEquals("", notModified.getResponse().getContentAsString());
+    }
+
+    @Test
+    void concatenatedResponseHasWeakEtagAndNoRanges() throws Exception {
+        MvcResult full = perform(get("/bulk/resource/Observation").header(HttpHeaders.RANGE, "bytes=0-9"));
+        assertEquals(200, full.getResponse().getStatus());
+        assertEquals(CONTENT, full.getResponse().getContentAsString());
+        assertEquals("none", full.getResponse().getHeader(HttpHeaders.ACCEPT_RANGES));
+        String etag = full.getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("W/\""), etag);
+
+        assertEquals(304, perform(get("/bulk/resource/Observation").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .getResponse().getStatus());
+        // a changed file changes the weak ETag too
+        Files.setLastModifiedTime(dir.resolve(FILE_NAME), FileTime.from(MODIFIED.plusSeconds(60)));
+        catalog.rescan();
+        assertEquals(200, perform(get("/bulk/resource/Observation").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .getResponse().getStatus());
+    }
+
+    @Test
+    void singleRangeIsPartialContent() throws Exception {
+        int size = CONTENT.length();
+        MvcResult partial = perform(get("/bulk/files/" + FILE_NAME).header(HttpHeaders.RANGE, "bytes=5-9"));
+        assertEquals(206, partial.getResponse().getStatus());
+        assertEquals("bytes 5-9/" + size, partial.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(CONTENT.substring(5, 10), partial.getResponse().getContentAsString());
+
+        MvcResult suffix = perform(get("/bulk/files/" + FILE_NAME).header(HttpHeaders.RANGE, "bytes=-4"));
+        assertEquals(206, suffix.getResponse().getStatus());
+        assertEquals(CONTENT.substring(size - 4), suffix.getResponse().getContentAsString());
+
+        MvcResult open = perform(get("/bulk/files/" + FILE_NAME).header(HttpHeaders.RANGE, "bytes=" + (size - 3) + "-"));
+        assertEquals("bytes " + (size - 3) + "-" + (size - 1) + "/" + size, open.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void multipleRangesGetTheWholeFile() throws Exception {
+        MvcResult full = perform(get("/bulk/files/" + FILE_NAME).header(HttpHeaders.RANGE, "bytes=0-1,5-9"));
+        assertEquals(200, full.getResponse().getStatus());
+        assertEquals(CONTENT, full.getResponse().getContentAsString());
+        assertFalse(full.getResponse().containsHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void rangePastTheEndIsNotSatisfiable() throws Exception {
+        MvcResult result = perform(get("/bulk/files/" + FILE_NAME).header(HttpHeaders.RANGE, "bytes=1000-"));
+        assertEquals(416, result.getResponse().getStatus());
+        assertEquals("bytes */" + CONTENT.length(), result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void ifRangeResumesOnlyTheSameVersion() throws Exception {
+        String etag = perform(get("/bulk/files/" + FILE_NAME)).getResponse().getHeader(HttpHeaders.ETAG);
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(MODIFIED.atOffset(ZoneOffset.UTC));
+
+        MvcResult resumed = perform(get("/bulk/files/" + FILE_NAME)
+                .header(HttpHeaders.RANGE, "bytes=5-").header(HttpHeaders.IF_RANGE, etag));
+        assertEquals(206, resumed.getResponse().getStatus());
+        assertEquals(CONTENT.substring(5), resumed.getResponse().getContentAsString());
+        assertEquals(206, perform(get("/bulk/files/" + FILE_NAME)
+                .header(HttpHeaders.RANGE, "bytes=5-").header(HttpHeaders.IF_RANGE, lastModified)).getResponse().getStatus());
+
+        // If-Range compares strongly, so a weak validator never resumes
+        assertEquals(200, perform(get("/bulk/files/" + FILE_NAME)
+                .header(HttpHeaders.RANGE, "bytes=5-").header(HttpHeaders.IF_RANGE, "W/" + etag)).getResponse().getStatus());
+
+        // the file changed since the client's copy: the whole new file
+        Files.writeString(dir.resolve(FILE_NAME), CONTENT + CONTENT, StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(dir.resolve(FILE_NAME), FileTime.from(MODIFIED.plusSeconds(60)));
+        MvcResult stale = perform(get("/bulk/files/" + FILE_NAME)
+                .header(HttpHeaders.RANGE, "bytes=5-").header(HttpHeaders.IF_RANGE, etag));
+        assertEquals(200, stale.getResponse().getStatus());
+        assertEquals(CONTENT + CONTENT, stale.getResponse().getContentAsString());
+        assertEquals(200, perform(get("/bulk/files/" + FILE_NAME)
+                .header(HttpHeaders.RANGE, "bytes=5-").header(HttpHeaders.IF_RANGE, lastModified)).getResponse().getStatus());
+    }
+
+    @Test
+    void invalidSinceIsAnOperationOutcome() throws Exception {
+        for (String path : new String[]{"/bulk/hospital/all", "/bulk/hospital/manifest", "/bulk/manifest"}) {
+            MvcResult result = perform(get(path).param("_since", "yesterday"));
+            assertEquals(400, result.getResponse().getStatus(), path);
+            String body = result.getResponse().getContentAsString();
+            assertTrue(body.contains("\"resourceType\":\"OperationOutcome\"") && body.contains("\"code\":\"invalid\""),
+                    path + ": " + body);
+        }
+        MvcResult incremental = perform(get("/bulk/hospital/all").param("_since", MODIFIED.minusSeconds(60).toString()));
+        assertEquals(200, incremental.getResponse().getStatus());
+        assertEquals(CONTENT, incremental.getResponse().getContentAsString());
+    }
+
+    @Test
+    void explicitGzipRefusalOutranksTheWildcard() throws Exception {
+        MvcResult refused = perform(get("/bulk/resource/Observation").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, *"));
+        assertEquals(200, refused.getResponse().getStatus());
+        assertNull(refused.getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(CONTENT, refused.getResponse().getContentAsString());
+
+        MvcResult accepted = perform(get("/bulk/resource/Observation").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0.5"));
+        assertEquals("gzip", accepted.getResponse().getHeader(HttpHeaders.CONTENT_ENCODING));
+
+        assertTrue(FhirExportController.acceptsGzip("*"));
+        assertTrue(FhirExportController.acceptsGzip("br, *;q=0.1"));
+        assertTrue(FhirExportController.acceptsGzip("*;q=0, GZIP"));
+        assertFalse(FhirExportController.acceptsGzip("* , gzip; Q=0"));
+        assertFalse(FhirExportController.acceptsGzip("gzip;q=0.000"));
+        assertFalse(FhirExportController.acceptsGzip("*;q=0"));
+        assertFalse(FhirExportController.acceptsGzip("identity"));
+        assertFalse(FhirExportController.acceptsGzip(null));
+    }
+
+    /**
+     * Performs the request and, for a streamed body, its async dispatch.
+     */
+    private MvcResult perform(MockHttpServletRequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            RequestBuilder dispatch = asyncDispatch(result);
+            result = mockMvc.perform(dispatch).andReturn();
+        }
+        return result;
+    }
+}
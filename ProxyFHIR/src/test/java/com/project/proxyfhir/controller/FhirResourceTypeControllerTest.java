@@ -0,0 +1,130 @@
+package com.project.proxyfhir.controller;
+
+import com.jayway.jsonpath.JsonPath;
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import com.project.proxyfhir.search.PageCursor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class FhirResourceTypeControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    @Test
+    void legacyPageParameterReadsAnOffsetSlice() throws Exception {
+        String patient = UUID.randomUUID().toString();
+        saveConditions(patient, 5);
+
+        mockMvc.perform(get("/api/Condition").param("patient", patient).param("size", "2").param("page", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.entry[*].fullUrl", contains(
+                        "/api/Condition/" + patient + "-3", "/api/Condition/" + patient + "-4")))
+                .andExpect(jsonPath("$.link[*].relation", hasItem("next")))
+                .andExpect(jsonPath("$.link[*].relation", hasItem("previous")));
+
+        mockMvc.perform(get("/api/Condition").param("patient", patient).param("size", "2").param("page", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.entry[*].fullUrl", contains("/api/Condition/" + patient + "-5")))
+                .andExpect(jsonPath("$.link[*].relation", not(hasItem("next"))));
+    }
+
+    /**
+     * Walks the searchset forwards through its next links and back through its previous links:
+     * every page is a keyset cursor, pages are in id order and together hold each row exactly once.
+     */
+    @Test
+    void cursorLinksWalkThePagesWithoutGapsOrDuplicates() throws Exception {
+        String patient = UUID.randomUUID().toString();
+        List<String> expected = saveConditions(patient, 7);
+
+        List<List<String>> forward = new ArrayList<>();
+        String url = "/api/Condition?patient=" + patient + "&size=3";
+        String last = null;
+        while (url != null) {
+            String body = mockMvc.perform(get(url)).andExpect(status().isOk())
+                    .andExpect(jsonPath("$.total").value(7))
+                    .andReturn().getResponse().getContentAsString();
+            forward.add(ids(body));
+            last = body;
+            url = link(body, "next");
+            if (url != null) assertTrue(url.contains("&cursor=") && !url.contains("page="), url);
+        }
+        assertEquals(List.of(expected.subList(0, 3), expected.subList(3, 6), expected.subList(6, 7)), forward);
+
+        List<List<String>> backward = new ArrayList<>();
+        url = link(last, "previous");
+        while (url != null) {
+            String body = mockMvc.perform(get(url)).andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            backward.add(ids(body));
+            assertNotNull(link(body, "next"));
+            url = link(body, "previous");
+        }
+        assertEquals(List.of(expected.subList(3, 6), expected.subList(0, 3)), backward);
+    }
+
+    @Test
+    void malformedCursorIsAnOperationOutcome() throws Exception {
+        String notBase64 = "not a cursor!";
+        String unknownDirection = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("c:5".getBytes(StandardCharsets.UTF_8));
+        String notANumber = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("a:five".getBytes(StandardCharsets.UTF_8));
+        for (String cursor : List.of(notBase64, unknownDirection, notANumber)) {
+            mockMvc.perform(get("/api/Condition").param("cursor", cursor))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.resourceType").value("OperationOutcome"))
+                    .andExpect(jsonPath("$.issue[0].code").value("invalid"));
+        }
+        mockMvc.perform(get("/api/Condition").param("cursor", PageCursor.after(0).encode()))
+                .andExpect(status().isOk());
+    }
+
+    private List<String> saveConditions(String patient, int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            FhirResource condition = new FhirResource("Condition", patient + "-" + i,
+                    "{\"resourceType\":\"Condition\",\"id\":\"" + patient + "-" + i + "\"}");
+            condition.setPatientId(patient);
+            repository.save(condition);
+            ids.add(patient + "-" + i);
+        }
+        return ids;
+    }
+
+    private static List<String> ids(String bundle) {
+        List<String> fullUrls = JsonPath.read(bundle, "$.entry[*].fullUrl");
+        return fullUrls.stream().map(u -> u.substring(u.lastIndexOf('/') + 1)).toList();
+    }
+
+    private static String link(String bundle, String relation) {
+        List<String> urls = JsonPath.read(bundle, "$.link[?(@.relation == '" + relation + "')].url");
+        return urls.isEmpty() ? null : urls.get(0);
+    }
+}
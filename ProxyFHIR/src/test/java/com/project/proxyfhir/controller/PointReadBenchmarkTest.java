@@ -0,0 +1,56 @@
+package com.project.proxyfhir.controller;
+
+import com.project.proxyfhir.BenchmarkData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Arrays;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Measures GET /api/Observation/{id} while the table grows; latency should follow the
+ * (resource_type, resource_id) index depth, not the row count.
+ * Run with: mvn test -Dtest=PointReadBenchmarkTest -Dbenchmark=true [-Dbenchmark.sizes=10000,1000000]
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class PointReadBenchmarkTest {
+
+    private static final int READS = 500;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void pointReadLatencyStaysFlat() throws Exception {
+        jdbcTemplate.update("delete from fhir_resource");
+        long inserted = 0;
+        for (long size : BenchmarkData.sizes("10000,200000")) {
+            BenchmarkData.insertObservations(jdbcTemplate, inserted, size);
+            inserted = size;
+
+            long[] timings = new long[READS];
+            for (int i = 0; i < READS; i++) {
+                String id = "o-" + (i * 7919L % size);
+                long start = System.nanoTime();
+                mockMvc.perform(get("/api/Observation/" + id)).andExpect(status().isOk());
+                timings[i] = System.nanoTime() - start;
+            }
+            mockMvc.perform(get("/api/Observation/missing")).andExpect(status().isNotFound());
+            Arrays.sort(timings);
+            System.out.printf("point read: %,d observations -> p50 %.2f ms, p95 %.2f ms%n",
+                    size, timings[READS / 2] / 1e6, timings[READS * 95 / 100] / 1e6);
+        }
+    }
+}
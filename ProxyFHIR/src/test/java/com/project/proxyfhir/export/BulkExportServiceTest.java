@@ -0,0 +1,160 @@
+package com.project.proxyfhir.export;
+
+import com.jayway.jsonpath.JsonPath;
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import com.project.proxyfhir.storage.ContentCodec;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The $export flow on H2: kickoff, status while running and queued, throttling, cancellation, and
+ * the manifest and files of a finished export, with files rolled every three resources.
+ */
+@SpringBootTest(properties = {
+        "fhir.export.page-size=2",
+        "fhir.export.max-resources-per-file=3",
+        "fhir.export.max-concurrent-jobs=1",
+        "fhir.export.max-queued-jobs=1"
+})
+@AutoConfigureMockMvc
+class BulkExportServiceTest {
+
+    private static final String TYPE = "ImagingStudy";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private BulkExportService exportService;
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @SpyBean
+    private ContentCodec codec;
+
+    @Test
+    void exportsTheTableThroughTheStatusFlow() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            String id = "export-" + i;
+            repository.save(new FhirResource(TYPE, id, "{\"resourceType\":\"" + TYPE + "\",\"id\":\"" + id + "\"}"));
+        }
+        Map<String, Long> table = new HashMap<>();
+        jdbcTemplate.query("SELECT resource_type, count(*) FROM fhir_resource WHERE resource_type IS NOT NULL "
+                + "GROUP BY resource_type", rs -> {
+            table.put(rs.getString(1), rs.getLong(2));
+        });
+        long total = table.values().stream().mapToLong(Long::longValue).sum();
+
+        // hold the running export at its first row
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean held = new AtomicBoolean();
+        doAnswer(invocation -> {
+            if (held.compareAndSet(false, true)) {
+                reading.countDown();
+                release.await(1, TimeUnit.MINUTES);
+            }
+            return invocation.callRealMethod();
+        }).when(codec).read(any(ResultSet.class), anyInt());
+
+        String running;
+        try {
+            running = kickOff();
+            assertTrue(reading.await(1, TimeUnit.MINUTES));
+            mockMvc.perform(get("/bulk/$export-status/" + running))
+                    .andExpect(status().isAccepted())
+                    .andExpect(header().string("X-Progress", startsWith("0 of " + total + " resources, exporting ")));
+
+            String queued = kickOff();
+            mockMvc.perform(get("/bulk/$export-status/" + queued))
+                    .andExpect(status().isAccepted())
+                    .andExpect(header().string("X-Progress", "queued"));
+
+            mockMvc.perform(get("/bulk/$export"))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(header().exists(HttpHeaders.RETRY_AFTER))
+                    .andExpect(jsonPath("$.issue[0].code").value("throttled"));
+
+            mockMvc.perform(delete("/bulk/$export-status/" + queued)).andExpect(status().isAccepted());
+            mockMvc.perform(get("/bulk/$export-status/" + queued)).andExpect(status().isNotFound());
+        } finally {
+            release.countDown();
+            Mockito.reset(codec);
+        }
+
+        String manifest = awaitManifest(running);
+        assertEquals(List.of(TYPE + ".000.ndjson", TYPE + ".001.ndjson", TYPE + ".002.ndjson"),
+                JsonPath.read(manifest, "$.files[?(@.resourceType == '" + TYPE + "')].fileName"));
+        assertEquals(List.of(3, 3, 1), JsonPath.read(manifest, "$.files[?(@.resourceType == '" + TYPE + "')].count"));
+
+        Path dir = exportService.directory(running).orElseThrow();
+        Map<String, Long> exported = new HashMap<>();
+        List<Map<String, Object>> files = JsonPath.read(manifest, "$.files");
+        for (Map<String, Object> file : files) {
+            long lines = Files.readAllLines(dir.resolve((String) file.get("fileName"))).size();
+            assertEquals(((Number) file.get("count")).longValue(), lines, (String) file.get("fileName"));
+            exported.merge((String) file.get("resourceType"), lines, Long::sum);
+        }
+        assertEquals(table, exported);
+        assertEquals(files.size(), (int) JsonPath.read(manifest, "$.output.length()"));
+
+        mockMvc.perform(delete("/bulk/$export-status/" + running)).andExpect(status().isAccepted());
+        mockMvc.perform(get("/bulk/$export-status/" + running)).andExpect(status().isNotFound());
+        assertFalse(Files.exists(dir));
+    }
+
+    private String kickOff() throws Exception {
+        String location = mockMvc.perform(post("/bulk/$export").param("_outputFormat", "application/fhir+ndjson"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.CONTENT_LOCATION, startsWith("/bulk/$export-status/")))
+                .andReturn().getResponse().getHeader(HttpHeaders.CONTENT_LOCATION);
+        return location.substring(location.lastIndexOf('/') + 1);
+    }
+
+    private String awaitManifest(String jobId) throws Exception {
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (System.currentTimeMillis() < deadline) {
+            var response = mockMvc.perform(get("/bulk/$export-status/" + jobId)).andReturn().getResponse();
+            if (response.getStatus() == 200) return response.getContentAsString();
+            assertEquals(202, response.getStatus(), response.getContentAsString());
+            Thread.sleep(50);
+        }
+        throw new AssertionError("export " + jobId + " did not finish");
+    }
+}
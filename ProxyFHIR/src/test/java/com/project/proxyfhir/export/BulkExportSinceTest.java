@@ -0,0 +1,131 @@
+package com.project.proxyfhir.export;
+
+import com.project.proxyfhir.importer.BundleIngester;
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.storage.ResourceUpserter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Incremental exports on a database whose session time zone (UTC-12) differs from the JVM's, with
+ * writes through ResourceUpserter and BundleIngester, one of them committing while an export runs.
+ * Unlike the PostgreSQL driver, H2 shifts java.sql.Timestamp parameters into the session zone, so
+ * Hibernate binds java.time values directly here.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:exportsince;TIME ZONE=Etc/GMT+12",
+        "spring.jpa.properties.hibernate.type.java_time_use_direct_jdbc=true",
+        "fhir.export.since-overlap-ms=5000"
+})
+class BulkExportSinceTest {
+
+    @Autowired
+    private BulkExportService exportService;
+
+    @Autowired
+    private ResourceUpserter upserter;
+
+    @Autowired
+    private BundleIngester bundleIngester;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void sinceTransactionTimeIncludesEveryLaterWrite() throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        upsert(prefix + "-old");
+        jdbcTemplate.update("UPDATE fhir_resource SET last_updated = DATEADD(HOUR, -1, LOCALTIMESTAMP) "
+                + "WHERE resource_type = 'Patient' AND resource_id = ?", prefix + "-old");
+
+        // a write transaction that starts before the first export and commits after it
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch exported = new CountDownLatch(1);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Future<?> slowWrite = writer.submit(() -> new TransactionTemplate(transactionManager).executeWithoutResult(s -> {
+            upsert(prefix + "-slow");
+            written.countDown();
+            try {
+                exported.await(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Instant transactionTime;
+        try {
+            written.await(1, TimeUnit.MINUTES);
+            String first = exportService.start("first", null, Set.of("Patient"));
+            BulkExportService.Status status = awaitCompleted(first);
+            assertEquals(Set.of(prefix + "-old"), exportedIds(first, prefix));
+            transactionTime = status.transactionTime();
+        } finally {
+            exported.countDown();
+            slowWrite.get(1, TimeUnit.MINUTES);
+            writer.shutdown();
+        }
+
+        upsert(prefix + "-upserted");
+        bundleIngester.ingest(new ByteArrayInputStream(("{\"resourceType\":\"Bundle\",\"type\":\"batch\",\"entry\":["
+                + "{\"resource\":{\"resourceType\":\"Patient\",\"id\":\"" + prefix + "-bundled\"},"
+                + "\"request\":{\"method\":\"PUT\",\"url\":\"Patient/" + prefix + "-bundled\"}}]}")
+                .getBytes(StandardCharsets.UTF_8)));
+
+        String next = exportService.start("next", transactionTime, Set.of("Patient"));
+        awaitCompleted(next);
+        assertEquals(Set.of(prefix + "-slow", prefix + "-upserted", prefix + "-bundled"), exportedIds(next, prefix));
+    }
+
+    private void upsert(String id) {
+        upserter.upsert(new FhirResource("Patient", id, "{\"resourceType\":\"Patient\",\"id\":\"" + id + "\"}"));
+    }
+
+    private BulkExportService.Status awaitCompleted(String jobId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (System.currentTimeMillis() < deadline) {
+            BulkExportService.Status status = exportService.status(jobId).orElseThrow();
+            if (status.state() == BulkExportService.State.COMPLETED) return status;
+            if (status.state() != BulkExportService.State.ACCEPTED && status.state() != BulkExportService.State.RUNNING) {
+                throw new AssertionError("export " + jobId + " ended " + status.state() + ": " + status.error());
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("export " + jobId + " did not finish");
+    }
+
+    private Set<String> exportedIds(String jobId, String prefix) throws Exception {
+        Set<String> ids = new HashSet<>();
+        try (Stream<Path> files = Files.list(exportService.directory(jobId).orElseThrow())) {
+            for (Path file : files.toList()) {
+                for (String line : Files.readAllLines(file)) {
+                    int start = line.indexOf("\"id\":\"" + prefix);
+                    if (start >= 0) ids.add(line.substring(start + 6, line.indexOf('"', start + 6)));
+                }
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,82 @@
+package com.project.proxyfhir.importer;
+
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+class BundleIngesterTest {
+
+    @Autowired
+    private BundleIngester ingester;
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    @Test
+    void storesTransactionEntriesAndUpdatesExistingOnes() {
+        String patient = UUID.randomUUID().toString();
+        String bundle = """
+                {"resourceType":"Bundle","type":"transaction","entry":[
+                  {"fullUrl":"urn:uuid:%1$s","resource":{"resourceType":"Patient","gender":"female"},
+                   "request":{"method":"POST","url":"Patient"}},
+                  {"resource":{"resourceType":"Observation","id":"%1$s-o1","subject":{"reference":"Patient/%1$s"},
+                   "valueQuantity":{"value":7.10}},
+                   "request":{"method":"POST","url":"Observation"}}]}
+                """.formatted(patient);
+        BundleIngester.Result created = ingest(bundle);
+        assertEquals("transaction", created.bundleType());
+        assertEquals(List.of(201, 201), created.entries().stream().map(BundleIngester.EntryOutcome::status).toList());
+        FhirResource stored = repository.findByResourceTypeAndResourceId("Patient", patient).orElseThrow();
+        assertTrue(stored.getContent().contains("\"id\":\"" + patient + "\""));
+        assertEquals(patient, repository.findByResourceTypeAndResourceId("Observation", patient + "-o1")
+                .orElseThrow().getPatientId());
+        assertTrue(repository.findByResourceTypeAndResourceId("Observation", patient + "-o1").orElseThrow()
+                .getContent().contains("\"value\":7.10"));
+
+        BundleIngester.Result updated = ingest("""
+                {"resourceType":"Bundle","type":"transaction","entry":[
+                  {"resource":{"resourceType":"Patient","id":"%1$s","gender":"male"},
+                   "request":{"method":"PUT","url":"Patient/%1$s"}}]}
+                """.formatted(patient));
+        assertEquals(200, updated.entries().get(0).status());
+        assertTrue(repository.findByResourceTypeAndResourceId("Patient", patient).orElseThrow()
+                .getContent().contains("male"));
+    }
+
+    @Test
+    void batchFailsOnlyInvalidEntriesAndTransactionRollsBack() {
+        String id = UUID.randomUUID().toString();
+        String entries = """
+                [{"resource":{"resourceType":"Condition","id":"%s"},"request":{"method":"POST","url":"Condition"}},
+                 {"resource":{"resourceType":"Condition","id":"other"},"request":{"method":"PUT","url":"Patient/x"}}]
+                """.formatted(id);
+
+        assertThrows(BundleIngester.InvalidEntryException.class,
+                () -> ingest("{\"resourceType\":\"Bundle\",\"type\":\"transaction\",\"entry\":" + entries + "}"));
+        assertTrue(repository.findByResourceTypeAndResourceId("Condition", id).isEmpty());
+
+        // "type" after "entry" is read without streaming
+        BundleIngester.Result batch = ingest("{\"resourceType\":\"Bundle\",\"entry\":" + entries + ",\"type\":\"batch\"}");
+        assertEquals(201, batch.entries().get(0).status());
+        assertEquals(400, batch.entries().get(1).status());
+        assertNull(batch.entries().get(1).resourceId());
+        assertTrue(repository.findByResourceTypeAndResourceId("Condition", id).isPresent());
+    }
+
+    private BundleIngester.Result ingest(String body) {
+        return ingester.ingest(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+}
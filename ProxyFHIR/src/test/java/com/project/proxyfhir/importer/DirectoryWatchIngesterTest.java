@@ -0,0 +1,126 @@
+package com.project.proxyfhir.importer;
+
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The watcher on synthea.import.dir and on fhir.hospital.dir, a directory served by /bulk, with a
+ * stability window long enough to tell it apart from a .done marker.
+ */
+@SpringBootTest
+class DirectoryWatchIngesterTest {
+
+    private static final long STABLE_MS = 4000;
+    private static final Path IMPORT_DIR = tempDir("watch-import");
+    private static final Path SERVED_DIR = tempDir("watch-served");
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    @DynamicPropertySource
+    static void dirs(DynamicPropertyRegistry registry) {
+        registry.add("synthea.import.watch.enabled", () -> "true");
+        registry.add("synthea.import.watch.stable-ms", () -> String.valueOf(STABLE_MS));
+        registry.add("synthea.import.dir", IMPORT_DIR::toString);
+        registry.add("fhir.hospital.dir", SERVED_DIR::toString);
+    }
+
+    @AfterAll
+    static void cleanUp() throws IOException {
+        FileSystemUtils.deleteRecursively(IMPORT_DIR);
+        FileSystemUtils.deleteRecursively(SERVED_DIR);
+    }
+
+    @Test
+    void importsMarkedFilesAtOnceAndOthersOnceStable() throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        long written = System.currentTimeMillis();
+        Files.writeString(IMPORT_DIR.resolve(prefix + "-unmarked.ndjson"), basic(prefix + "-unmarked"));
+        Files.writeString(IMPORT_DIR.resolve(prefix + "-marked.ndjson"), basic(prefix + "-marked"));
+        Files.createFile(IMPORT_DIR.resolve(prefix + "-marked.ndjson.done"));
+
+        await(() -> stored(prefix + "-marked"));
+        if (System.currentTimeMillis() - written < STABLE_MS) {
+            assertFalse(stored(prefix + "-unmarked"), "imported before its size stayed unchanged for stable-ms");
+        }
+        await(() -> Files.exists(IMPORT_DIR.resolve("imported").resolve(prefix + "-marked.ndjson.done")));
+        assertFalse(Files.exists(IMPORT_DIR.resolve(prefix + "-marked.ndjson")));
+
+        await(() -> stored(prefix + "-unmarked"));
+        assertTrue(System.currentTimeMillis() - written >= STABLE_MS);
+        await(() -> Files.exists(IMPORT_DIR.resolve("imported").resolve(prefix + "-unmarked.ndjson")));
+    }
+
+    @Test
+    void leavesServedFilesInPlaceAndReimportsThemWhenChanged() throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        Path file = SERVED_DIR.resolve("Basic." + prefix + ".ndjson");
+        Files.writeString(file, basic(prefix + "-1"));
+        Files.createFile(SERVED_DIR.resolve(file.getFileName() + ".done"));
+
+        await(() -> stored(prefix + "-1"));
+        Thread.sleep(3000);
+        assertTrue(Files.exists(file));
+        assertFalse(Files.exists(SERVED_DIR.resolve("imported")));
+
+        Files.writeString(file, basic(prefix + "-2"), StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(5)));
+        await(() -> stored(prefix + "-2"));
+        assertTrue(Files.exists(file));
+    }
+
+    @Test
+    void watchesADirectoryAgainAfterItIsRecreated() throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        FileSystemUtils.deleteRecursively(IMPORT_DIR);
+        // long enough for the watcher to notice the directory is gone
+        Thread.sleep(2000);
+        Files.createDirectories(IMPORT_DIR);
+        Files.writeString(IMPORT_DIR.resolve(prefix + ".ndjson"), basic(prefix));
+        Files.createFile(IMPORT_DIR.resolve(prefix + ".ndjson.done"));
+
+        await(() -> stored(prefix));
+    }
+
+    private boolean stored(String id) {
+        return repository.findByResourceTypeAndResourceId("Basic", id).isPresent();
+    }
+
+    private static String basic(String id) {
+        return "{\"resourceType\":\"Basic\",\"id\":\"" + id + "\"}\n";
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("timed out");
+            Thread.sleep(100);
+        }
+    }
+
+    private static Path tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix).toAbsolutePath().normalize();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
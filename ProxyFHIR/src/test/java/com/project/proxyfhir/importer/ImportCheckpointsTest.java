@@ -0,0 +1,37 @@
+package com.project.proxyfhir.importer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+class ImportCheckpointsTest {
+
+    @Autowired
+    private ImportCheckpoints checkpoints;
+
+    @Test
+    void importedVersionOfAFileLeftInPlaceIsRecognizedUntilItChanges(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("Patient.000.ndjson");
+        Files.writeString(file, "{\"resourceType\":\"Patient\",\"id\":\"a\"}\n");
+        assertFalse(checkpoints.isImported(file));
+
+        checkpoints.markImported(file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+        assertTrue(checkpoints.isImported(file));
+        // an explicit import of the same version starts a new checkpoint
+        assertNull(checkpoints.start(file).getCompletedAt());
+
+        Files.writeString(file, "{\"resourceType\":\"Patient\",\"id\":\"b\"}\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+        assertFalse(checkpoints.isImported(file));
+    }
+}
@@ -0,0 +1,138 @@
+package com.project.proxyfhir.importer;
+
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The fhir.import.* meters and the /bulk/import/status totals after a small import, and the rate and
+ * ETA of a run still in progress.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class ImportMetricsTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private NdjsonImporter importer;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Test
+    void importUpdatesMetersAndStatus(@TempDir Path dir) throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        Path specimens = dir.resolve("Specimen.000.ndjson");
+        Files.writeString(specimens, resource("Specimen", prefix + "-1") + "\n" + resource("Specimen", prefix + "-2")
+                + "\n{\"id\":\"" + prefix + "-untyped\"}\n" + resource("Specimen", prefix + "-3") + "\n");
+        Path substances = dir.resolve("Substance.000.ndjson");
+        Files.writeString(substances, resource("Substance", prefix + "-1") + "\n" + resource("Substance", prefix + "-2") + "\n");
+        long bytes = Files.size(specimens) + Files.size(substances);
+
+        double parsedBefore = counter("fhir.import.resources.parsed", "resourceType", "Specimen");
+        double writtenBefore = counter("fhir.import.resources.written", "resourceType", "Substance");
+        double failuresBefore = counter("fhir.import.parse.failures", "reason", "missing-resource-type");
+        double bytesBefore = counter("fhir.import.bytes.read", null, null);
+        long commitsBefore = commits();
+
+        assertEquals(5, importer.importFiles(List.of(specimens, substances), result -> {}));
+
+        assertEquals(3, counter("fhir.import.resources.parsed", "resourceType", "Specimen") - parsedBefore);
+        assertEquals(2, counter("fhir.import.resources.written", "resourceType", "Substance") - writtenBefore);
+        assertEquals(1, counter("fhir.import.parse.failures", "reason", "missing-resource-type") - failuresBefore);
+        // the parser stops at the end of the last value, before each file's final newline
+        assertEquals(bytes - 2, counter("fhir.import.bytes.read", null, null) - bytesBefore);
+        assertTrue(commits() - commitsBefore >= 2);
+        assertEquals(0, registry.get("fhir.import.files.active").gauge().value());
+        assertEquals(0, registry.get("fhir.import.bytes.remaining").gauge().value());
+
+        String body = mockMvc.perform(get("/bulk/import/status")).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertEquals(2, (int) JsonPath.read(body, "$.progress.filesTotal"));
+        assertEquals(2, (int) JsonPath.read(body, "$.progress.filesDone"));
+        assertEquals(bytes, number(body, "$.progress.bytesTotal").longValue());
+        assertEquals(bytes, number(body, "$.progress.bytesRead").longValue());
+        assertEquals(5, number(body, "$.progress.resourcesParsed").longValue());
+        assertEquals(5, number(body, "$.progress.resourcesWritten").longValue());
+        assertEquals(1, number(body, "$.progress.parseFailures").longValue());
+        assertEquals(100.0, number(body, "$.progress.percentComplete").doubleValue());
+        assertEquals(0, number(body, "$.progress.etaSeconds").longValue());
+        assertNotNull(JsonPath.read(body, "$.progress.finishedAt"));
+        assertEquals(List.of("COMPLETED", "COMPLETED"), JsonPath.read(body, "$.progress.files[*].state"));
+        assertEquals(List.of(1, 0), JsonPath.read(body, "$.progress.files[*].parseFailures"));
+        assertTrue(number(body, "$.progress.resourcesPerSecond").doubleValue() > 0);
+    }
+
+    @Test
+    void ratesAndEtaFollowTheRunInProgress(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("Basic.000.ndjson");
+        Files.writeString(file, "x".repeat(1000));
+        ImportMetrics metrics = new ImportMetrics(new SimpleMeterRegistry());
+
+        metrics.runStarted(List.of(file));
+        assertNull(metrics.progress().etaSeconds(), "no ETA before anything was read");
+        ImportMetrics.FileProgress progress = metrics.file(file);
+        progress.started(0);
+        metrics.readTo(progress, 250);
+        metrics.batchCommitted(progress, "jpa", Map.of("Basic", 5L), 1_000_000);
+        Thread.sleep(1000);
+
+        ImportMetrics.Progress running = metrics.progress();
+        double seconds = Duration.between(running.startedAt(), Instant.now()).toMillis() / 1000.0;
+        assertEquals(25.0, running.percentComplete());
+        assertTrue(running.bytesPerSecond() > 0 && running.bytesPerSecond() <= 250, "bytes/s " + running.bytesPerSecond());
+        assertTrue(running.resourcesPerSecond() >= 5 / seconds && running.resourcesPerSecond() <= 5);
+        assertEquals(Math.round(750 / running.bytesPerSecond()), running.etaSeconds());
+        assertEquals(750, running.bytesTotal() - running.bytesRead());
+
+        progress.finished(true);
+        metrics.runFinished();
+        ImportMetrics.Progress finished = metrics.progress();
+        assertEquals(100.0, finished.percentComplete());
+        assertEquals(0L, finished.etaSeconds());
+        assertEquals(1, finished.filesDone());
+    }
+
+    private double counter(String name, String tag, String value) {
+        Counter counter = tag == null ? registry.find(name).counter() : registry.find(name).tag(tag, value).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private long commits() {
+        return registry.find("fhir.import.batch.commit").tag("outcome", "success").timers().stream()
+                .mapToLong(Timer::count).sum();
+    }
+
+    private static Number number(String body, String path) {
+        return JsonPath.read(body, path);
+    }
+
+    private static String resource(String type, String id) {
+        return "{\"resourceType\":\"" + type + "\",\"id\":\"" + id + "\"}";
+    }
+}
@@ -0,0 +1,64 @@
+package com.project.proxyfhir.importer;
+
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import com.project.proxyfhir.search.SearchParameterExtractor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures importer-style inserts (saveAll of 1000-resource batches) in rows per second.
+ * Run with: mvn test -Dtest=ImportThroughputBenchmarkTest -Dbenchmark=true [-Dbenchmark.rows=200000]
+ * and compare against -Dspring.jpa.properties.hibernate.jdbc.batch_size=0 (one INSERT per row);
+ * point spring.datasource.url at Postgres with reWriteBatchedInserts=true for realistic numbers.
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ImportThroughputBenchmarkTest {
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:0}")
+    private int jdbcBatchSize;
+
+    @Test
+    void batchedInsertThroughput() {
+        int rows = Integer.getInteger("benchmark.rows", 50_000);
+        jdbcTemplate.update("delete from fhir_resource");
+
+        long start = System.nanoTime();
+        List<FhirResource> batch = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            String patientId = "p-" + (i / 50);
+            String content = "{\"resourceType\":\"Observation\",\"id\":\"t-" + i
+                    + "\",\"subject\":{\"reference\":\"Patient/" + patientId + "\"}}";
+            FhirResource resource = new FhirResource("Observation", "t-" + i, content);
+            resource.setPatientId(patientId);
+            resource.setIndexVersion(SearchParameterExtractor.CURRENT_VERSION);
+            batch.add(resource);
+            if (batch.size() == NdjsonImporter.BATCH_SIZE) {
+                repository.saveAll(batch);
+                batch.clear();
+            }
+        }
+        repository.saveAll(batch);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        assertEquals(rows, repository.count());
+        System.out.printf("hibernate.jdbc.batch_size=%d: %d rows in %.2f s = %.0f rows/s%n",
+                jdbcBatchSize, rows, seconds, rows / seconds);
+    }
+}
@@ -0,0 +1,142 @@
+package com.project.proxyfhir.importer;
+
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.model.ImportCheckpoint;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import com.project.proxyfhir.repository.ImportCheckpointRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+
+@SpringBootTest
+class NdjsonImporterTest {
+
+    @Autowired
+    private NdjsonImporter importer;
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    @Autowired
+    private ImportCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @SpyBean
+    private JpaResourceBatchWriter writer;
+
+    @Test
+    void keepsDecimalsAsWritten(@TempDir Path dir) throws Exception {
+        String id = UUID.randomUUID().toString();
+        Path file = dir.resolve("Observation.000.ndjson");
+        Files.writeString(file, "{\"resourceType\":\"Observation\",\"id\":\"" + id + "\",\"valueQuantity\":"
+                + "{\"value\":7.10,\"unit\":\"mmol/L\"},\"component\":[{\"valueQuantity\":{\"value\":0.12345678901234567890123}},"
+                + "{\"valueQuantity\":{\"value\":1.000000000000000000001}},{\"valueInteger\":12345678901234567890}]}\n",
+                StandardCharsets.UTF_8);
+
+        importer.importFiles(List.of(file), result -> {});
+
+        String content = repository.findByResourceTypeAndResourceId("Observation", id).orElseThrow().getContent();
+        assertTrue(content.contains("\"value\":7.10,"), content);
+        assertTrue(content.contains("\"value\":0.12345678901234567890123}"), content);
+        assertTrue(content.contains("\"value\":1.000000000000000000001}"), content);
+        assertTrue(content.contains("\"valueInteger\":12345678901234567890}"), content);
+        assertEquals(7.1, repository.findByResourceTypeAndResourceId("Observation", id).orElseThrow().getValueQuantity());
+    }
+
+    /**
+     * Cancels an import when its third batch fails, while later batches are still queued or being
+     * written, then runs it again: the checkpoint stops before the failed batch even though batches
+     * after it were committed, and the second run stores exactly the missing resources.
+     */
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void resumesInterruptedImportFromLastContiguousBatch(boolean gzip, @TempDir Path dir) throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        int lines = 30 * NdjsonImporter.BATCH_SIZE;
+        Path file = dir.resolve(gzip ? "Basic.000.ndjson.gz" : "Basic.000.ndjson");
+        try (OutputStream out = gzip ? new GZIPOutputStream(Files.newOutputStream(file)) : Files.newOutputStream(file)) {
+            for (int i = 0; i < lines; i++) {
+                out.write(("{\"resourceType\":\"Basic\",\"id\":\"" + prefix + "-" + i + "\"}\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        String failingId = prefix + "-" + (2 * NdjsonImporter.BATCH_SIZE + 1);
+
+        List<NdjsonImporter.FileResult> results = new ArrayList<>();
+        Thread run = new Thread(() -> {
+            try {
+                importer.importFiles(List.of(file), results::add);
+            } catch (InterruptedException e) {
+                // cancelled
+            }
+        });
+        doAnswer(invocation -> {
+            List<FhirResource> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(r -> failingId.equals(r.getResourceId()))) {
+                run.interrupt();
+                throw new IllegalStateException("writer stopped");
+            }
+            return invocation.callRealMethod();
+        }).when(writer).write(anyList());
+        try {
+            run.start();
+            run.join();
+        } finally {
+            Mockito.reset(writer);
+        }
+
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).complete());
+        ImportCheckpoint checkpoint = checkpointRepository.findById(file.toAbsolutePath().normalize().toString()).orElseThrow();
+        assertEquals(2, checkpoint.getBatches());
+        assertEquals(2L * NdjsonImporter.BATCH_SIZE, checkpoint.getResourcesImported());
+        assertEquals(offsetAfter(file, 2 * NdjsonImporter.BATCH_SIZE), checkpoint.getByteOffset());
+        long storedBefore = count(prefix);
+        assertTrue(storedBefore >= 2L * NdjsonImporter.BATCH_SIZE && storedBefore <= lines - NdjsonImporter.BATCH_SIZE,
+                "rows after the cancelled run: " + storedBefore);
+
+        results.clear();
+        long imported = importer.importFiles(List.of(file), results::add);
+
+        assertTrue(results.get(0).complete());
+        assertEquals(lines - storedBefore, imported);
+        assertEquals(lines, count(prefix));
+        assertTrue(checkpointRepository.findById(checkpoint.getFilePath()).isEmpty());
+    }
+
+    private long count(String prefix) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM fhir_resource WHERE resource_type = 'Basic' "
+                + "AND resource_id LIKE ?", Long.class, prefix + "-%");
+    }
+
+    private static long offsetAfter(Path file, int resources) throws Exception {
+        try (NdjsonResourceReader reader = NdjsonResourceReader.open(FhirJson.newMapper(), file)) {
+            for (int i = 0; i < resources; i++) {
+                reader.next();
+            }
+            return reader.byteOffset();
+        }
+    }
+}
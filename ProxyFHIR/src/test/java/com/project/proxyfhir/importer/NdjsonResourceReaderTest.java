@@ -0,0 +1,70 @@
+package com.project.proxyfhir.importer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NdjsonResourceReaderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void readsLineDelimitedAndPrettyPrintedObjects() throws Exception {
+        String input = """
+                {"resourceType":"Patient","id":"p1"}
+                {"resourceType":"Observation","id":"o1","note":[{"text":"a } in a string"}]}
+
+                {
+                  "resourceType": "Condition",
+                  "id": "c1"
+                }{"resourceType":"Encounter","id":"e1"}
+                """;
+        List<String> ids = new ArrayList<>();
+        try (NdjsonResourceReader reader = new NdjsonResourceReader(mapper,
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)))) {
+            JsonNode node;
+            while ((node = reader.next()) != null) {
+                ids.add(node.get("resourceType").asText() + "/" + node.get("id").asText());
+            }
+        }
+        assertEquals(List.of("Patient/p1", "Observation/o1", "Condition/c1", "Encounter/e1"), ids);
+    }
+
+    @Test
+    void resumesGzipFileAtUncompressedOffset(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("Patient.000.ndjson.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write("""
+                    {"resourceType":"Patient","id":"p1"}
+                    {"resourceType":"Patient","id":"p2"}
+                    {"resourceType":"Patient","id":"p3"}
+                    """.getBytes(StandardCharsets.UTF_8));
+        }
+
+        long offset;
+        try (NdjsonResourceReader reader = NdjsonResourceReader.open(mapper, file)) {
+            reader.next();
+            offset = reader.byteOffset();
+        }
+        List<String> ids = new ArrayList<>();
+        try (NdjsonResourceReader reader = NdjsonResourceReader.open(mapper, file, offset)) {
+            JsonNode node;
+            while ((node = reader.next()) != null) {
+                ids.add(node.get("id").asText());
+            }
+        }
+        assertEquals(List.of("p2", "p3"), ids);
+    }
+}
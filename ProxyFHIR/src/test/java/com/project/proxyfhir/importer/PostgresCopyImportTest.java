@@ -0,0 +1,75 @@
+package com.project.proxyfhir.importer;
+
+import com.project.proxyfhir.model.FhirResource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs an import with synthea.import.mode=copy into an empty fhir_resource table with a new id
+ * sequence, the case of seeding a new environment. fhir_resource is truncated, so point it at a
+ * scratch database.
+ * Run with: mvn test -Dtest=PostgresCopyImportTest
+ *   -Dpostgres.url=jdbc:postgresql://localhost:5432/proxyfhir_test [-Dpostgres.user=postgres -Dpostgres.password=root]
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "postgres.url", matches = "jdbc:postgresql:.+")
+class PostgresCopyImportTest {
+
+    @Autowired
+    private NdjsonImporter importer;
+
+    @Autowired
+    private CopyResourceBatchWriter copyWriter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void postgres(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getProperty("postgres.url"));
+        registry.add("spring.datasource.driverClassName", () -> "org.postgresql.Driver");
+        registry.add("spring.datasource.username", () -> System.getProperty("postgres.user", "postgres"));
+        registry.add("spring.datasource.password", () -> System.getProperty("postgres.password", "root"));
+        registry.add("spring.jpa.database-platform", () -> "org.hibernate.dialect.PostgreSQLDialect");
+        registry.add("spring.jpa.hibernate.ddl-auto", () -> "update");
+        registry.add("synthea.import.mode", () -> "copy");
+    }
+
+    @Test
+    void assignsPositiveIdsWhenSeedingAnEmptyTable(@TempDir Path dir) throws Exception {
+        assertTrue(copyWriter.isSupported());
+        jdbcTemplate.execute("TRUNCATE fhir_resource");
+        jdbcTemplate.execute("ALTER SEQUENCE " + FhirResource.ID_SEQUENCE + " RESTART WITH 1");
+
+        int lines = 2 * NdjsonImporter.BATCH_SIZE + 50;
+        Path file = dir.resolve("Patient.000.ndjson");
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lines; i++) {
+                out.write("{\"resourceType\":\"Patient\",\"id\":\"seed-" + i + "\"}\n");
+            }
+        }
+
+        importer.importFiles(List.of(file), result -> {});
+
+        assertEquals(lines, jdbcTemplate.queryForObject("SELECT count(DISTINCT id) FROM fhir_resource", Long.class));
+        // the first nextval of a new sequence is 1: its block starts there instead of at -98
+        List<Long> ids = jdbcTemplate.queryForList("SELECT id FROM fhir_resource WHERE id <= 0", Long.class);
+        assertTrue(ids.isEmpty(), "ids below 1: " + ids);
+        assertEquals(1L, jdbcTemplate.queryForObject("SELECT min(id) FROM fhir_resource", Long.class));
+    }
+}
@@ -0,0 +1,54 @@
+package com.project.proxyfhir.search;
+
+import com.project.proxyfhir.BenchmarkData;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures patient-scoped Observation searches while the table grows.
+ * Run with: mvn test -Dtest=PatientSearchBenchmarkTest -Dbenchmark=true [-Dbenchmark.sizes=10000,1000000,10000000]
+ * and point spring.datasource.url at Postgres for realistic numbers.
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class PatientSearchBenchmarkTest {
+
+    private static final int QUERIES = 200;
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void patientSearchLatencyStaysFlat() {
+        jdbcTemplate.update("delete from fhir_resource");
+        long inserted = 0;
+        for (long size : BenchmarkData.sizes("10000,100000")) {
+            BenchmarkData.insertObservations(jdbcTemplate, inserted, size);
+            inserted = size;
+
+            long patients = size / BenchmarkData.OBSERVATIONS_PER_PATIENT;
+            long[] timings = new long[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                String patientId = "p-" + (i * 7919L % patients);
+                long start = System.nanoTime();
+                int found = repository.findByResourceTypeAndPatientId("Observation", patientId).size();
+                timings[i] = System.nanoTime() - start;
+                assertEquals(BenchmarkData.OBSERVATIONS_PER_PATIENT, found);
+            }
+            Arrays.sort(timings);
+            System.out.printf("patient search: %,d observations -> p50 %.2f ms, p95 %.2f ms%n",
+                    size, timings[QUERIES / 2] / 1e6, timings[QUERIES * 95 / 100] / 1e6);
+        }
+    }
+}
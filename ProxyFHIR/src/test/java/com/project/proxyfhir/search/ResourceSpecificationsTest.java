@@ -0,0 +1,83 @@
+package com.project.proxyfhir.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+class ResourceSpecificationsTest {
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void codeMatchesAnyCodingOfTheResource() throws Exception {
+        String patient = UUID.randomUUID().toString();
+        save(patient, "o1", """
+                "code":{"coding":[{"system":"http://loinc.org","code":"4548-4"},{"system":"http://snomed.info/sct","code":"43396009"}]}""");
+        save(patient, "o2", """
+                "code":{"coding":[{"code":"43396009"}]}""");
+
+        assertEquals(List.of("o1", "o2"), search(patient, ResourceSpecifications.code(TokenParam.parse("43396009"))));
+        assertEquals(List.of("o1"), search(patient, ResourceSpecifications.code(TokenParam.parse("http://snomed.info/sct|43396009"))));
+        assertEquals(List.of("o2"), search(patient, ResourceSpecifications.code(TokenParam.parse("|43396009"))));
+        assertEquals(List.of("o1"), search(patient, ResourceSpecifications.code(TokenParam.parse("4548-4"))));
+        assertEquals(List.of(), search(patient, ResourceSpecifications.code(TokenParam.parse("http://loinc.org|43396009"))));
+    }
+
+    @Test
+    void quantityEqualityUsesThePrecisionOfTheSearchValue() throws Exception {
+        String patient = UUID.randomUUID().toString();
+        for (String value : List.of("9.04", "9.05", "9.1", "9.149", "9.15")) {
+            save(patient, value, "\"valueQuantity\":{\"value\":" + value + ",\"code\":\"mmol/L\"}");
+        }
+
+        assertEquals(List.of("9.05", "9.1", "9.149"), search(patient, ResourceSpecifications.valueQuantity(QuantityParam.parse("9.1"))));
+        assertEquals(List.of("9.1"), search(patient, ResourceSpecifications.valueQuantity(QuantityParam.parse("9.100"))));
+        assertEquals(List.of("9.04", "9.15"), search(patient, ResourceSpecifications.valueQuantity(QuantityParam.parse("ne9.1"))));
+        assertEquals(List.of("9.149", "9.15"), search(patient, ResourceSpecifications.valueQuantity(QuantityParam.parse("gt9.1"))));
+        assertEquals(List.of(), search(patient, ResourceSpecifications.valueQuantity(QuantityParam.parse("9.1||mg"))));
+    }
+
+    @Test
+    void dateRangeOfAPartialDate() throws Exception {
+        String patient = UUID.randomUUID().toString();
+        for (String date : List.of("2020-02-29T23:59:59Z", "2020-03-01", "2020-03-31T23:59:59Z", "2020-04-01T00:00:00Z")) {
+            save(patient, date, "\"effectiveDateTime\":\"" + date + "\"");
+        }
+
+        assertEquals(List.of("2020-03-01", "2020-03-31T23:59:59Z"),
+                search(patient, ResourceSpecifications.date(DateParam.parse("2020-03"))));
+        assertEquals(List.of("2020-04-01T00:00:00Z"), search(patient, ResourceSpecifications.date(DateParam.parse("gt2020-03"))));
+        assertEquals(List.of("2020-03-01", "2020-03-31T23:59:59Z", "2020-04-01T00:00:00Z"),
+                search(patient, ResourceSpecifications.date(DateParam.parse("ge2020-03"))));
+        assertEquals(List.of("2020-02-29T23:59:59Z"), search(patient, ResourceSpecifications.date(DateParam.parse("lt2020-03"))));
+        assertEquals(4, search(patient, ResourceSpecifications.date(DateParam.parse("2020"))).size());
+    }
+
+    private void save(String patient, String id, String fields) throws Exception {
+        String content = "{\"resourceType\":\"Observation\",\"id\":\"" + patient + "-" + id + "\","
+                + "\"subject\":{\"reference\":\"Patient/" + patient + "\"}," + fields + "}";
+        FhirResource resource = new FhirResource("Observation", patient + "-" + id, content);
+        SearchParameterExtractor.apply(resource, mapper.readTree(content));
+        repository.save(resource);
+    }
+
+    private List<String> search(String patient, Specification<FhirResource> spec) {
+        return repository.findAll(ResourceSpecifications.patient(patient).and(spec)).stream()
+                .map(r -> r.getResourceId().substring(patient.length() + 1))
+                .sorted()
+                .toList();
+    }
+}
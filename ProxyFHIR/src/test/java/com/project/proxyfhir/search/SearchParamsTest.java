@@ -0,0 +1,110 @@
+package com.project.proxyfhir.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchParamsTest {
+
+    @Test
+    void prefixIsTwoLettersBeforeTheValue() {
+        assertEquals(SearchPrefix.GE, SearchPrefix.of("ge2020"));
+        assertEquals(SearchPrefix.LT, SearchPrefix.of("LT9.5"));
+        assertEquals(SearchPrefix.EQ, SearchPrefix.of("2020-03"));
+        // not a prefix, or nothing after it
+        assertEquals(SearchPrefix.EQ, SearchPrefix.of("gx2020"));
+        assertEquals(SearchPrefix.EQ, SearchPrefix.of("ge"));
+        assertEquals(SearchPrefix.EQ, SearchPrefix.of(null));
+
+        assertEquals("2020", SearchPrefix.GE.strip("ge2020"));
+        assertEquals("2020", SearchPrefix.EQ.strip("2020"));
+        assertEquals("9", SearchPrefix.NE.strip("NE9"));
+    }
+
+    @Test
+    void dateRangeFollowsThePrecisionOfTheValue() {
+        assertRange(DateParam.parse("2020"), "2020-01-01T00:00:00Z", "2021-01-01T00:00:00Z");
+        assertRange(DateParam.parse("2020-02"), "2020-02-01T00:00:00Z", "2020-03-01T00:00:00Z");
+        assertRange(DateParam.parse("2020-03-15"), "2020-03-15T00:00:00Z", "2020-03-16T00:00:00Z");
+        assertRange(DateParam.parse("2020-03-15T10:30:00Z"), "2020-03-15T10:30:00Z", "2020-03-15T10:30:01Z");
+        // no time zone: UTC
+        assertRange(DateParam.parse("2020-03-15T10:30:00"), "2020-03-15T10:30:00Z", "2020-03-15T10:30:01Z");
+        // '+' of the offset decoded as a space from an unescaped query string
+        assertRange(DateParam.parse("2020-03-15T10:30:00 01:00"), "2020-03-15T09:30:00Z", "2020-03-15T09:30:01Z");
+    }
+
+    @Test
+    void dateTakesItsPrefix() {
+        DateParam date = DateParam.parse("ge2020-03");
+        assertEquals(SearchPrefix.GE, date.prefix());
+        assertRange(date, "2020-03-01T00:00:00Z", "2020-04-01T00:00:00Z");
+        assertEquals(SearchPrefix.EQ, DateParam.parse("eq2020").prefix());
+        assertEquals(SearchPrefix.LT, DateParam.parse("lt2020-03-15T10:30:00-05:00").prefix());
+
+        assertThrows(IllegalArgumentException.class, () -> DateParam.parse("2020-13"));
+        assertThrows(IllegalArgumentException.class, () -> DateParam.parse("ge"));
+        assertThrows(IllegalArgumentException.class, () -> DateParam.parse("gx2020"));
+        assertNull(DateParam.start("not a date"));
+    }
+
+    @Test
+    void quantityKeepsTheWrittenPrecision() {
+        QuantityParam quantity = QuantityParam.parse("9.10");
+        assertEquals(SearchPrefix.EQ, quantity.prefix());
+        assertEquals(new BigDecimal("9.10"), quantity.value());
+        assertEquals(2, quantity.value().scale());
+        assertNull(quantity.unit());
+
+        QuantityParam withUnit = QuantityParam.parse("gt9|http://unitsofmeasure.org|mg");
+        assertEquals(SearchPrefix.GT, withUnit.prefix());
+        assertEquals(new BigDecimal("9"), withUnit.value());
+        assertEquals("mg", withUnit.unit());
+        assertNull(QuantityParam.parse("le5||").unit());
+
+        assertThrows(IllegalArgumentException.class, () -> QuantityParam.parse("ten"));
+        assertThrows(IllegalArgumentException.class, () -> QuantityParam.parse("9|mg"));
+    }
+
+    @Test
+    void tokenSeparatesSystemAndCode() {
+        TokenParam code = TokenParam.parse("4548-4");
+        assertFalse(code.systemSpecified());
+        assertEquals("4548-4", code.indexKey());
+
+        TokenParam qualified = TokenParam.parse("http://loinc.org|4548-4");
+        assertTrue(qualified.systemSpecified());
+        assertEquals("http://loinc.org", qualified.system());
+        assertEquals("4548-4", qualified.code());
+        assertEquals("http://loinc.org|4548-4", qualified.indexKey());
+
+        TokenParam noSystem = TokenParam.parse("|4548-4");
+        assertTrue(noSystem.systemSpecified());
+        assertNull(noSystem.system());
+        assertEquals("|4548-4", noSystem.indexKey());
+    }
+
+    @Test
+    void everyCodingIsIndexed() throws Exception {
+        var node = new ObjectMapper().readTree("""
+                {"code":{"coding":[{"system":"http://loinc.org","code":"4548-4"},
+                  {"system":"http://snomed.info/sct","code":"43396009"},{"code":"local-1"},{"display":"no code"}]}}
+                """);
+        assertArrayEquals(new String[]{"4548-4", "http://loinc.org|4548-4", "43396009",
+                "http://snomed.info/sct|43396009", "local-1", "|local-1"}, SearchParameterExtractor.extractCodes(node));
+        assertNull(SearchParameterExtractor.extractCodes(new ObjectMapper().readTree("{\"code\":{\"text\":\"x\"}}")));
+    }
+
+    private static void assertRange(DateParam date, String lower, String upper) {
+        assertEquals(Instant.parse(lower), date.lower());
+        assertEquals(Instant.parse(upper), date.upper());
+    }
+}
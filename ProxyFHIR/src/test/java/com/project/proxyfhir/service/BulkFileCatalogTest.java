@@ -0,0 +1,106 @@
+package com.project.proxyfhir.service;
+
+import com.project.proxyfhir.service.BulkFileCatalog.FileEntry;
+import com.project.proxyfhir.service.BulkFileCatalog.Source;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkFileCatalogTest {
+
+    private static final String PATIENTS = "{\"resourceType\":\"Patient\",\"id\":\"a\"}\n\n"
+            + "{\"resourceType\":\"Patient\",\"id\":\"b\"}\r\n{\"resourceType\":\"Patient\",\"id\":\"c\"}";
+
+    @TempDir
+    Path synthea;
+
+    @TempDir
+    Path hospital;
+
+    @Test
+    void matchesFilesByResourceTypeAcrossVariants() throws Exception {
+        Files.writeString(synthea.resolve("Patient.000.ndjson"), PATIENTS);
+        gzip(synthea.resolve("Patient.000.ndjson.gz"), PATIENTS);
+        gzip(synthea.resolve("Patient.001.ndjson.gz"), PATIENTS);
+        Files.writeString(synthea.resolve("PatientConsent.000.ndjson"), "{}\n");
+        Files.writeString(synthea.resolve("Patient.000.json"), "{}\n");
+        BulkFileCatalog catalog = new BulkFileCatalog(synthea.toString(), hospital.toString());
+
+        List<FileEntry> patients = catalog.files(Source.SYNTHEA, "Patient");
+        assertEquals(List.of("Patient.000.ndjson", "Patient.001.ndjson"),
+                patients.stream().map(FileEntry::fileName).toList());
+        FileEntry both = patients.get(0);
+        assertEquals(synthea.resolve("Patient.000.ndjson"), both.preferred(false));
+        assertEquals(synthea.resolve("Patient.000.ndjson.gz"), both.preferred(true));
+        assertEquals(PATIENTS.length(), both.size());
+        assertEquals(Files.size(synthea.resolve("Patient.000.ndjson.gz")), both.compressedSize());
+        assertEquals(synthea.resolve("Patient.001.ndjson.gz"), patients.get(1).preferred(false));
+        assertEquals(List.of("PatientConsent.000.ndjson"),
+                catalog.files(Source.SYNTHEA, "PatientConsent").stream().map(FileEntry::fileName).toList());
+        assertTrue(catalog.files(Source.HOSPITAL).isEmpty());
+    }
+
+    @Test
+    void countsLinesAndHashesContentOnRescan() throws Exception {
+        Files.writeString(hospital.resolve("Patient.000.ndjson"), PATIENTS);
+        gzip(hospital.resolve("Patient.001.ndjson.gz"), PATIENTS);
+        BulkFileCatalog catalog = new BulkFileCatalog(synthea.toString(), hospital.toString());
+        // listed on first use, statistics follow with the next refresh
+        assertNull(catalog.files(Source.HOSPITAL).get(0).lines());
+
+        catalog.rescan();
+
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                .digest(PATIENTS.getBytes(StandardCharsets.UTF_8)));
+        for (FileEntry entry : catalog.files(Source.HOSPITAL)) {
+            assertEquals(3L, entry.lines(), entry.fileName());
+            assertEquals(sha256, entry.sha256(), entry.fileName());
+        }
+    }
+
+    @Test
+    void rescanPicksUpAddedChangedAndDeletedFiles() throws Exception {
+        Path patients = synthea.resolve("Patient.000.ndjson");
+        Files.writeString(patients, PATIENTS);
+        Files.writeString(synthea.resolve("Encounter.000.ndjson"), "{}\n");
+        BulkFileCatalog catalog = new BulkFileCatalog(synthea.toString(), hospital.toString());
+        catalog.rescan();
+        assertEquals(2, catalog.files(Source.SYNTHEA).size());
+
+        Files.writeString(patients, PATIENTS + "\n{\"resourceType\":\"Patient\",\"id\":\"d\"}\n");
+        Files.setLastModifiedTime(patients, FileTime.from(Instant.now().plusSeconds(60)));
+        Files.delete(synthea.resolve("Encounter.000.ndjson"));
+        Files.writeString(synthea.resolve("Observation.000.ndjson"), "{}\n{}\n");
+        catalog.rescan();
+
+        List<FileEntry> files = catalog.files(Source.SYNTHEA);
+        assertEquals(List.of("Observation.000.ndjson", "Patient.000.ndjson"),
+                files.stream().map(FileEntry::fileName).toList());
+        assertEquals(2L, files.get(0).lines());
+        FileEntry changed = files.get(1);
+        assertEquals(4L, changed.lines());
+        assertEquals(Files.size(patients), changed.size());
+        assertNotNull(changed.sha256());
+    }
+
+    private static void gzip(Path file, String content) throws Exception {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
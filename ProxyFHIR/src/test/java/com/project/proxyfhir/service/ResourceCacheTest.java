@@ -0,0 +1,103 @@
+package com.project.proxyfhir.service;
+
+import com.project.proxyfhir.importer.BundleIngester;
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import com.project.proxyfhir.storage.ResourceUpserter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+class ResourceCacheTest {
+
+    @Autowired
+    private ResourceCache cache;
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    @Autowired
+    private ResourceUpserter upserter;
+
+    @Autowired
+    private BundleIngester bundleIngester;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Test
+    void repeatedReadsAreHitsAndEveryWritePathInvalidates() {
+        String id = UUID.randomUUID().toString();
+        FhirResource saved = repository.save(new FhirResource("Organization", id, content(id, "v1")));
+
+        double hits = hits();
+        assertTrue(cache.find("Organization", id).orElseThrow().getContent().contains("v1"));
+        assertEquals(saved.getId(), cache.find("Organization", id).orElseThrow().getId());
+        assertEquals(hits + 1, hits());
+
+        upserter.upsert(new FhirResource("Organization", id, content(id, "v2")));
+        assertTrue(cache.find("Organization", id).orElseThrow().getContent().contains("v2"));
+
+        bundleIngester.ingest(new ByteArrayInputStream(("{\"resourceType\":\"Bundle\",\"type\":\"batch\",\"entry\":[{"
+                + "\"resource\":" + content(id, "v3") + ",\"request\":{\"method\":\"PUT\",\"url\":\"Organization/" + id + "\"}}]}")
+                .getBytes(StandardCharsets.UTF_8)));
+        assertTrue(cache.find("Organization", id).orElseThrow().getContent().contains("v3"));
+
+        FhirResource stored = repository.findByResourceTypeAndResourceId("Organization", id).orElseThrow();
+        stored.setContent(content(id, "v4"));
+        repository.save(stored);
+        assertTrue(cache.find("Organization", id).orElseThrow().getContent().contains("v4"));
+
+        repository.delete(stored);
+        assertTrue(cache.find("Organization", id).isEmpty());
+    }
+
+    @Test
+    void scanOfResourcesReadOnceDoesNotEvictHotOnes() {
+        // 16 segments of 4 KB, each holding a few entries
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        ResourceCache small = new ResourceCache(repository, meters, true, 64 * 1024, 1024);
+        String prefix = UUID.randomUUID().toString();
+        List<FhirResource> resources = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            resources.add(new FhirResource("Practitioner", prefix + "-" + i, content(prefix + "-" + i, "x".repeat(200))));
+        }
+        repository.saveAll(resources);
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 20; i++) {
+                small.find("Practitioner", prefix + "-" + i);
+            }
+        }
+        for (int i = 20; i < 1000; i++) {
+            small.find("Practitioner", prefix + "-" + i);
+        }
+        double before = meters.get("fhir.cache.gets").tag("result", "hit").counter().count();
+        for (int i = 0; i < 20; i++) {
+            small.find("Practitioner", prefix + "-" + i);
+        }
+        double hotHits = meters.get("fhir.cache.gets").tag("result", "hit").counter().count() - before;
+        assertTrue(hotHits >= 18, "hot resources still cached after the scan: " + hotHits);
+        assertTrue(small.weight() <= 64 * 1024);
+    }
+
+    private double hits() {
+        return registry.get("fhir.cache.gets").tag("result", "hit").counter().count();
+    }
+
+    private static String content(String id, String version) {
+        return "{\"resourceType\":\"Organization\",\"id\":\"" + id + "\",\"name\":\"" + version + "\"}";
+    }
+}
@@ -0,0 +1,118 @@
+package com.project.proxyfhir.service;
+
+import com.jayway.jsonpath.JsonPath;
+import com.project.proxyfhir.importer.NdjsonImporter;
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * /api/stats after each write path that maintains the counters (import, upsert, Bundle ingest,
+ * delete), and after the re-sync that corrects writes made behind the service's back.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class ResourceCountServiceTest {
+
+    private static final String TYPE = "Device";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ResourceCountService resourceCounts;
+
+    @Autowired
+    private NdjsonImporter importer;
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void statsFollowEveryWritePath(@TempDir Path dir) throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        // start from the table, whatever other tests wrote directly
+        resourceCounts.resync();
+        long stored = stored();
+        assertEquals(stored, stats());
+
+        Path file = dir.resolve(TYPE + ".000.ndjson");
+        Files.writeString(file, device(prefix + "-i1") + "\n" + device(prefix + "-i2") + "\n" + device(prefix + "-i3") + "\n");
+        importer.importFiles(List.of(file), result -> {});
+        assertCounted(stored += 3);
+
+        mockMvc.perform(post("/ressources/type/" + TYPE).contentType(MediaType.APPLICATION_JSON).content(device(prefix + "-u")))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/ressources/type/" + TYPE).contentType(MediaType.APPLICATION_JSON).content(device(prefix + "-u")))
+                .andExpect(status().isOk());
+        assertCounted(stored += 1);
+
+        String bundle = "{\"resourceType\":\"Bundle\",\"type\":\"batch\",\"entry\":["
+                + "{\"resource\":" + device(prefix + "-b1") + "},{\"resource\":" + device(prefix + "-b2") + "},"
+                + "{\"resource\":" + device(prefix + "-u") + ",\"request\":{\"method\":\"PUT\",\"url\":\"" + TYPE + "/" + prefix + "-u\"}}]}";
+        mockMvc.perform(post("/ressources").contentType(MediaType.APPLICATION_JSON).content(bundle))
+                .andExpect(status().isOk());
+        assertCounted(stored += 2);
+
+        long id = repository.findByResourceTypeAndResourceId(TYPE, prefix + "-b1").orElseThrow().getId();
+        mockMvc.perform(delete("/ressources/" + id)).andExpect(status().isOk());
+        assertCounted(stored -= 1);
+    }
+
+    @Test
+    void resyncCorrectsDrift() throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        resourceCounts.resync();
+        long before = stats();
+
+        // writes that bypass the counters
+        repository.save(new FhirResource(TYPE, prefix + "-1", device(prefix + "-1")));
+        repository.save(new FhirResource(TYPE, prefix + "-2", device(prefix + "-2")));
+        jdbcTemplate.update("DELETE FROM fhir_resource WHERE resource_type = ? AND resource_id = ?", TYPE, prefix + "-1");
+        assertEquals(before, stats());
+
+        resourceCounts.resync();
+        assertEquals(before + 1, stats());
+        assertCounted(stored());
+    }
+
+    private void assertCounted(long expected) throws Exception {
+        assertEquals(expected, stored());
+        assertEquals(expected, stats());
+    }
+
+    private long stored() {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM fhir_resource WHERE resource_type = ?", Long.class, TYPE);
+    }
+
+    private long stats() throws Exception {
+        String body = mockMvc.perform(get("/api/stats")).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return ((Number) JsonPath.read(body, "$.byResourceType." + TYPE)).longValue();
+    }
+
+    private static String device(String id) {
+        return "{\"resourceType\":\"" + TYPE + "\",\"id\":\"" + id + "\"}";
+    }
+}
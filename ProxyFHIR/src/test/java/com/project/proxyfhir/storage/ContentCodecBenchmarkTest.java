@@ -0,0 +1,183 @@
+package com.project.proxyfhir.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.proxyfhir.importer.NdjsonFiles;
+import com.project.proxyfhir.importer.NdjsonResourceReader;
+import com.project.proxyfhir.model.FhirResource;
+import com.project.proxyfhir.repository.FhirResourceRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Stores the same resources as text and with fhir.storage.content-codec=deflate (per-type dictionaries
+ * trained on the stored rows) and reports, per resource type, the compression ratio with and without
+ * dictionary, then insert throughput and point-read latency for both formats.
+ * Reads Synthea NDJSON from -Dbenchmark.dir (e.g. synthea-sample/100-patients); without it, generates
+ * Synthea-shaped Observations.
+ * Run with: mvn test -Dtest=ContentCodecBenchmarkTest -Dbenchmark=true [-Dbenchmark.dir=...] [-Dbenchmark.rows=50000]
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ContentCodecBenchmarkTest {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int READS = 1000;
+    private static final String[][] VITALS = {
+            {"8302-2", "Body Height", "cm"}, {"29463-7", "Body Weight", "kg"}, {"39156-5", "Body Mass Index", "kg/m2"},
+            {"8867-4", "Heart rate", "/min"}, {"9279-1", "Respiratory rate", "/min"}, {"72514-3", "Pain severity", "{score}"}};
+
+    @Autowired
+    private FhirResourceRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ContentCodec codec;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void compressionRatioWriteCostAndReadLatency() throws IOException {
+        List<FhirResource> resources = load(Integer.getInteger("benchmark.rows", 50_000));
+
+        ReflectionTestUtils.setField(codec, "enabled", false);
+        Result text = run(resources, "length(content)");
+        for (String type : text.bytesByType().keySet()) {
+            codec.train(type);
+        }
+        Map<String, Long> plainDeflate = plainDeflateSizes(resources);
+
+        ReflectionTestUtils.setField(codec, "enabled", true);
+        Result compressed = run(resources, "length(content_zip)");
+        ReflectionTestUtils.setField(codec, "enabled", false);
+
+        System.out.printf("%-24s %14s %14s %8s %14s %8s%n", "resource type", "text bytes", "deflate", "ratio",
+                "+dictionary", "ratio");
+        for (Map.Entry<String, Long> e : text.bytesByType().entrySet()) {
+            long deflate = plainDeflate.get(e.getKey());
+            long dictionary = compressed.bytesByType().get(e.getKey());
+            System.out.printf("%-24s %,14d %,14d %7.1fx %,14d %7.1fx%n", e.getKey(), e.getValue(), deflate,
+                    (double) e.getValue() / deflate, dictionary, (double) e.getValue() / dictionary);
+        }
+        for (Map.Entry<String, Result> e : Map.of("text", text, "deflate+dictionary", compressed).entrySet()) {
+            Result r = e.getValue();
+            System.out.printf("%s: %,d bytes, insert %.0f rows/s, point read p50 %.3f ms, p95 %.3f ms%n", e.getKey(),
+                    r.bytesByType().values().stream().mapToLong(Long::longValue).sum(), r.rowsPerSecond(),
+                    r.readNanos()[READS / 2] / 1e6, r.readNanos()[READS * 95 / 100] / 1e6);
+        }
+    }
+
+    private record Result(Map<String, Long> bytesByType, double rowsPerSecond, long[] readNanos) {}
+
+    private Result run(List<FhirResource> resources, String storedLength) {
+        jdbcTemplate.update("delete from fhir_resource");
+        long start = System.nanoTime();
+        List<FhirResource> batch = new ArrayList<>();
+        for (FhirResource r : resources) {
+            batch.add(new FhirResource(r.getResourceType(), r.getResourceId(), r.getContent()));
+            if (batch.size() == BATCH_SIZE) {
+                repository.saveAll(batch);
+                batch.clear();
+            }
+        }
+        repository.saveAll(batch);
+        double rowsPerSecond = resources.size() / ((System.nanoTime() - start) / 1e9);
+
+        Map<String, Long> bytes = new TreeMap<>();
+        jdbcTemplate.query("select resource_type, sum(" + storedLength + ") from fhir_resource group by resource_type",
+                rs -> {
+                    bytes.put(rs.getString(1), rs.getLong(2));
+                });
+
+        long[] timings = new long[READS];
+        for (int i = 0; i < READS; i++) {
+            FhirResource expected = resources.get((int) (i * 7919L % resources.size()));
+            long t = System.nanoTime();
+            FhirResource read = repository.findByResourceTypeAndResourceId(expected.getResourceType(),
+                    expected.getResourceId()).orElseThrow();
+            timings[i] = System.nanoTime() - t;
+            assertEquals(expected.getContent(), read.getContent());
+        }
+        Arrays.sort(timings);
+        return new Result(bytes, rowsPerSecond, timings);
+    }
+
+    private static Map<String, Long> plainDeflateSizes(List<FhirResource> resources) {
+        Map<String, Long> sizes = new TreeMap<>();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] buffer = new byte[64 * 1024];
+        for (FhirResource r : resources) {
+            deflater.reset();
+            deflater.setInput(r.getContent().getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            long size = 0;
+            while (!deflater.finished()) {
+                size += deflater.deflate(buffer);
+            }
+            sizes.merge(r.getResourceType(), size, Long::sum);
+        }
+        deflater.end();
+        return sizes;
+    }
+
+    private List<FhirResource> load(int rows) throws IOException {
+        List<FhirResource> resources = new ArrayList<>();
+        String dir = System.getProperty("benchmark.dir");
+        if (dir != null) {
+            List<Path> files;
+            try (Stream<Path> s = Files.list(Paths.get(dir))) {
+                files = s.filter(NdjsonFiles::isNdjson).sorted().toList();
+            }
+            for (Path file : files) {
+                try (NdjsonResourceReader reader = NdjsonResourceReader.open(mapper, file)) {
+                    JsonNode node;
+                    while (resources.size() < rows && (node = reader.next()) != null) {
+                        if (!node.hasNonNull("resourceType") || !node.hasNonNull("id")) continue;
+                        resources.add(new FhirResource(node.get("resourceType").asText(), node.get("id").asText(),
+                                node.toString()));
+                    }
+                }
+            }
+            return resources;
+        }
+        for (int i = 0; i < rows; i++) {
+            String[] vital = VITALS[i % VITALS.length];
+            String id = UUID.randomUUID().toString();
+            String content = "{\"resourceType\":\"Observation\",\"id\":\"" + id + "\",\"meta\":{\"profile\":"
+                    + "[\"http://hl7.org/fhir/us/core/StructureDefinition/us-core-vital-signs\"]},\"status\":\"final\","
+                    + "\"category\":[{\"coding\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/observation-category\","
+                    + "\"code\":\"vital-signs\",\"display\":\"Vital signs\"}]}],\"code\":{\"coding\":[{\"system\":"
+                    + "\"http://loinc.org\",\"code\":\"" + vital[0] + "\",\"display\":\"" + vital[1] + "\"}],\"text\":\""
+                    + vital[1] + "\"},\"subject\":{\"reference\":\"urn:uuid:p-" + (i / 50) + "\"},\"encounter\":"
+                    + "{\"reference\":\"urn:uuid:e-" + (i / 10) + "\"},\"effectiveDateTime\":\"2019-0" + (i % 9 + 1)
+                    + "-1" + (i % 10) + "T08:2" + (i % 10) + ":41-04:00\",\"issued\":\"2019-0" + (i % 9 + 1) + "-1"
+                    + (i % 10) + "T08:2" + (i % 10) + ":41.508-04:00\",\"valueQuantity\":{\"value\":"
+                    + (50 + (i * 37 % 1000) / 10.0) + ",\"unit\":\"" + vital[2] + "\",\"system\":"
+                    + "\"http://unitsofmeasure.org\",\"code\":\"" + vital[2] + "\"}}";
+            resources.add(new FhirResource("Observation", id, content));
+        }
+        return resources;
+    }
+}
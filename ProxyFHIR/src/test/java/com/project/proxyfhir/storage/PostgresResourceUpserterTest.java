@@ -0,0 +1,41 @@
+package com.project.proxyfhir.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs the concurrent upsert test against PostgreSQL, where ResourceUpserter uses
+ * INSERT ... ON CONFLICT DO UPDATE and takes the created flag from xmax. Tables are created or
+ * updated in that database and the test rows are left behind, so point it at a scratch database.
+ * Run with: mvn test -Dtest=PostgresResourceUpserterTest
+ *   -Dpostgres.url=jdbc:postgresql://localhost:5432/proxyfhir_test [-Dpostgres.user=postgres -Dpostgres.password=root]
+ */
+@EnabledIfSystemProperty(named = "postgres.url", matches = "jdbc:postgresql:.+")
+class PostgresResourceUpserterTest extends ResourceUpserterTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @DynamicPropertySource
+    static void postgres(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getProperty("postgres.url"));
+        registry.add("spring.datasource.driverClassName", () -> "org.postgresql.Driver");
+        registry.add("spring.datasource.username", () -> System.getProperty("postgres.user", "postgres"));
+        registry.add("spring.datasource.password", () -> System.getProperty("postgres.password", "root"));
+        registry.add("spring.jpa.database-platform", () -> "org.hibernate.dialect.PostgreSQLDialect");
+        registry.add("spring.jpa.hibernate.ddl-auto", () -> "update");
+    }
+
+    @Test
+    void runsOnPostgres() {
+        assertEquals("PostgreSQL", jdbcTemplate.execute((Connection c) -> c.getMetaData().getDatabaseProductName()));
+    }
+}
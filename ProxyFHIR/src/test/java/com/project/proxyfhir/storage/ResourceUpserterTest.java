@@ -0,0 +1,81 @@
+package com.project.proxyfhir.storage;
+
+import com.project.proxyfhir.model.FhirResource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+class ResourceUpserterTest {
+
+    private static final int THREADS = 16;
+    private static final int IDS = 20;
+    private static final int ROUNDS = 10;
+
+    @Autowired
+    private ResourceUpserter upserter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void concurrentWritersOfTheSameIdsLeaveOneRowPerId() throws Exception {
+        String prefix = UUID.randomUUID().toString();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < IDS; i++) {
+            ids.add(prefix + "-" + i);
+        }
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int writer = t;
+                writers.add(pool.submit(() -> {
+                    List<String> order = new ArrayList<>(ids);
+                    Collections.shuffle(order);
+                    start.await();
+                    for (int round = 0; round < ROUNDS; round++) {
+                        for (String id : order) {
+                            String content = "{\"resourceType\":\"Patient\",\"id\":\"" + id + "\",\"writer\":" + writer + "}";
+                            if (upserter.upsert(new FhirResource("Patient", id, content)).created()) {
+                                created.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(IDS, created.get());
+        List<Long> rowsPerId = jdbcTemplate.queryForList("SELECT count(*) FROM fhir_resource "
+                + "WHERE resource_type = 'Patient' AND resource_id LIKE ? GROUP BY resource_id", Long.class, prefix + "-%");
+        assertEquals(IDS, rowsPerId.size());
+        assertTrue(rowsPerId.stream().allMatch(n -> n == 1));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT count(*) FROM fhir_resource WHERE resource_id LIKE ? "
+                + "AND last_updated IS NULL", Long.class, prefix + "-%"));
+    }
+}